@@ -3,8 +3,10 @@
 import cgi
 import os
 import shutil
+import struct
 import sys
 import sqlite3
+import zlib
 
 SCREENS = 5
 COLUMNS = 4
@@ -45,8 +47,104 @@ def get_favorites(conn):
   rows = []
   for row in c:
     rows.append(row)
+  if not "icon" in columns:
+    # Since database version 14 the icons have a table of their own
+    icons = get_icons(conn)
+    columns.append("icon")
+    rows = [row + (icons.get(row[0]),) for row in rows]
   return columns,rows
 
+def get_icons(conn):
+  c = conn.cursor()
+  icons = {}
+  try:
+    c.execute("SELECT _id, icon FROM icons")
+  except sqlite3.OperationalError:
+    return icons
+  for row in c:
+    icons[row[0]] = row[1]
+  return icons
+
+def lz_decompress(src, ip, size):
+  """Undoes LzCodec.compress(), returns a list of size byte values or None."""
+  dst = []
+  while ip < len(src):
+    token = src[ip]
+    ip += 1
+    literals = token >> 4
+    if literals == 15:
+      while True:
+        if ip >= len(src):
+          return None
+        b = src[ip]
+        ip += 1
+        literals += b
+        if b != 255:
+          break
+    if literals > len(src) - ip or literals > size - len(dst):
+      return None
+    dst.extend(src[ip:ip+literals])
+    ip += literals
+    if len(dst) == size:
+      if ip == len(src):
+        return dst
+      return None
+    if len(src) - ip < 2:
+      return None
+    offset = src[ip] | (src[ip+1] << 8)
+    ip += 2
+    match = token & 0xf
+    if match == 15:
+      while True:
+        if ip >= len(src):
+          return None
+        b = src[ip]
+        ip += 1
+        match += b
+        if b != 255:
+          break
+    match += 4
+    if offset == 0 or offset > len(dst) or match > size - len(dst):
+      return None
+    ref = len(dst) - offset
+    for i in range(0, match):
+      dst.append(dst[ref+i])
+  return None
+
+def png_chunk(kind, data):
+  return (struct.pack(">I", len(data)) + kind + data
+      + struct.pack(">I", zlib.crc32(kind + data) & 0xffffffff))
+
+def icon_to_png(blob):
+  """Returns the icon blob as a PNG: blobs written by IconCodec ("LIC" and the version,
+  then the size and the LZ compressed premultiplied RGBA pixels) are converted, older ones
+  already are PNGs. Returns None if the blob can't be read."""
+  data = str(blob)
+  if data[0:4] != "LIC\x01":
+    return data
+  if len(data) < 8:
+    return None
+  width, height = struct.unpack(">HH", data[4:8])
+  pixels = lz_decompress([ord(ch) for ch in data], 8, width * height * 4)
+  if pixels is None:
+    return None
+  raw = []
+  for y in range(0, height):
+    raw.append("\0")
+    for x in range(0, width):
+      i = (y * width + x) * 4
+      a = pixels[i+3]
+      if a == 0:
+        raw.append("\0\0\0\0")
+      else:
+        # PNG isn't premultiplied
+        raw.append(struct.pack("BBBB", min(255, pixels[i] * 255 / a),
+            min(255, pixels[i+1] * 255 / a), min(255, pixels[i+2] * 255 / a), a))
+  return ("\x89PNG\r\n\x1a\n"
+      + png_chunk("IHDR", struct.pack(">IIBBBBB", width, height, 8, 6, 0, 0, 0))
+      + png_chunk("IDAT", zlib.compress("".join(raw)))
+      + png_chunk("IEND", ""))
+
 def print_intent(out, id, i, cell):
   if cell:
     out.write("""<span class="intent" title="%s">shortcut</span>""" % (
@@ -56,10 +154,14 @@ def print_intent(out, id, i, cell):
 
 def print_icon(out, id, i, cell):
   if cell:
+    png = icon_to_png(cell)
+    if png is None:
+      out.write("<i>unreadable icon</i>")
+      return
     icon_fn = "icon_%d.png" % id
     out.write("""<img src="%s">""" % ( icon_fn ))
-    f = file(DIR + "/" + icon_fn, "w")
-    f.write(cell)
+    f = file(DIR + "/" + icon_fn, "wb")
+    f.write(png)
     f.close()
 
 def print_cell(out, id, i, cell):
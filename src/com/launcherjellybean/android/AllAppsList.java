@@ -110,14 +110,16 @@ class AllAppsList {
                 data.remove(i);
             }
         }
-        // This is more aggressive than it needs to be.
-        mIconCache.flush();
+        // Only this package's icons, the others are still good
+        mIconCache.removePackage(packageName);
     }
 
     /**
      * Add and remove icons for this package which has been updated.
      */
     public void updatePackage(Context context, String packageName) {
+        // All of the package's icons may have changed, including those of shortcuts
+        mIconCache.removePackage(packageName);
         final List<ResolveInfo> matches = findActivitiesForPackage(context, packageName);
         if (matches.size() > 0) {
             // Find disabled/removed activities and remove them from data and add them
@@ -128,7 +130,6 @@ class AllAppsList {
                 if (packageName.equals(component.getPackageName())) {
                     if (!findActivity(matches, component)) {
                         removed.add(applicationInfo);
-                        mIconCache.remove(component);
                         data.remove(i);
                     }
                 }
@@ -145,7 +146,6 @@ class AllAppsList {
                 if (applicationInfo == null) {
                     add(new ApplicationInfo(context.getPackageManager(), info, mIconCache, null));
                 } else {
-                    mIconCache.remove(applicationInfo.componentName);
                     mIconCache.getTitleAndIcon(applicationInfo, info, null);
                     modified.add(applicationInfo);
                 }
@@ -157,7 +157,6 @@ class AllAppsList {
                 final ComponentName component = applicationInfo.intent.getComponent();
                 if (packageName.equals(component.getPackageName())) {
                     removed.add(applicationInfo);
-                    mIconCache.remove(component);
                     data.remove(i);
                 }
             }
@@ -24,8 +24,9 @@ import android.content.pm.ResolveInfo;
 import android.graphics.Bitmap;
 import android.util.Log;
 
+import java.text.CollationKey;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Represents an app in AllAppsView.
@@ -38,6 +39,11 @@ class ApplicationInfo extends ItemInfo {
      */
     CharSequence title;
 
+    /**
+     * The collation key of the title, see {@link #getTitleKey()}.
+     */
+    private CollationKey titleKey;
+
     /**
      * The intent used to start the application.
      */
@@ -68,7 +74,7 @@ class ApplicationInfo extends ItemInfo {
      * Must not hold the Context.
      */
     public ApplicationInfo(PackageManager pm, ResolveInfo info, IconCache iconCache,
-            HashMap<Object, CharSequence> labelCache) {
+            Map<Object, CharSequence> labelCache) {
         final String packageName = info.activityInfo.applicationInfo.packageName;
 
         this.componentName = new ComponentName(packageName, info.activityInfo.name);
@@ -91,17 +97,32 @@ class ApplicationInfo extends ItemInfo {
         }
 
         iconCache.getTitleAndIcon(this, info, labelCache);
+        // Collate on the loader thread rather than when all apps sorts the list
+        getTitleKey();
     }
 
     public ApplicationInfo(ApplicationInfo info) {
         super(info);
         componentName = info.componentName;
         title = info.title.toString();
+        titleKey = info.titleKey;
         intent = new Intent(info.intent);
         flags = info.flags;
         firstInstallTime = info.firstInstallTime;
     }
 
+    /**
+     * Returns the collation key of the title, which is only computed again when the title
+     * changes. Used to sort and search the apps by name.
+     */
+    CollationKey getTitleKey() {
+        final String label = title != null ? title.toString() : "";
+        if (titleKey == null || !label.equals(titleKey.getSourceString())) {
+            titleKey = LauncherModel.getCollationKey(label);
+        }
+        return titleKey;
+    }
+
     /** Returns the package name that the shortcut's intent will resolve to, or an empty string if
      *  none exists. */
     String getPackageName() {
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.launcherjellybean.android;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * 加载桌面时记录各个屏幕哪些格子已被占用,每个格子一个bit.
+ * Tracks which cells of each screen are taken while the workspace is loaded, with one long
+ * per row of a screen and one bit per cell, so a span is tested and taken with a mask per
+ * row. Rows can be at most 64 cells wide. The items placed on each screen are remembered as
+ * well, so the item that holds a cell can be reported when another one overlaps it.
+ *
+ * One instance is reused for every load; call {@link #reset(int, int)} first. Not thread
+ * safe.
+ */
+class CellOccupancy {
+    static final int MAX_COUNT_X = 64;
+
+    private static class Placement {
+        final ItemInfo item;
+        final int cellX, cellY, spanX, spanY;
+
+        Placement(ItemInfo item, int cellX, int cellY, int spanX, int spanY) {
+            this.item = item;
+            this.cellX = cellX;
+            this.cellY = cellY;
+            this.spanX = spanX;
+            this.spanY = spanY;
+        }
+    }
+
+    private final int mScreenCount;
+    private int mCountX;
+    private int mCountY;
+    // mRows[screen * mCountY + y], bit x is cell (x, y)
+    private long[] mRows;
+    private final ArrayList<ArrayList<Placement>> mPlacements;
+
+    CellOccupancy(int screenCount) {
+        mScreenCount = screenCount;
+        mPlacements = new ArrayList<ArrayList<Placement>>(screenCount);
+        for (int i = 0; i < screenCount; i++) {
+            mPlacements.add(new ArrayList<Placement>());
+        }
+        mRows = new long[0];
+    }
+
+    /**
+     * Marks every cell as free, for screens of countX by countY cells.
+     */
+    void reset(int countX, int countY) {
+        if (countX > MAX_COUNT_X) {
+            throw new IllegalArgumentException("Screens can be at most " + MAX_COUNT_X
+                    + " cells wide, not " + countX);
+        }
+        mCountX = countX;
+        if (mCountY != countY || mRows.length != mScreenCount * countY) {
+            mCountY = countY;
+            mRows = new long[mScreenCount * countY];
+        } else {
+            Arrays.fill(mRows, 0);
+        }
+        for (ArrayList<Placement> placements : mPlacements) {
+            placements.clear();
+        }
+    }
+
+    /**
+     * Takes the cells of the given span for item if they are all on the screen and free, and
+     * returns true. Otherwise nothing changes and false is returned.
+     */
+    boolean occupy(int screen, int cellX, int cellY, int spanX, int spanY, ItemInfo item) {
+        if (screen < 0 || screen >= mScreenCount || cellX < 0 || cellY < 0
+                || spanX < 1 || spanY < 1
+                || cellX + spanX > mCountX || cellY + spanY > mCountY) {
+            return false;
+        }
+        final long mask = (spanX == 64 ? -1L : ((1L << spanX) - 1)) << cellX;
+        final int first = screen * mCountY + cellY;
+        final int last = first + spanY;
+        for (int i = first; i < last; i++) {
+            if ((mRows[i] & mask) != 0) {
+                return false;
+            }
+        }
+        for (int i = first; i < last; i++) {
+            mRows[i] |= mask;
+        }
+        mPlacements.get(screen).add(new Placement(item, cellX, cellY, spanX, spanY));
+        return true;
+    }
+
+    /**
+     * Returns the item that holds one of the cells of the given span, or null if they are all
+     * free or not on the screen.
+     */
+    ItemInfo findOverlapping(int screen, int cellX, int cellY, int spanX, int spanY) {
+        if (screen < 0 || screen >= mScreenCount) {
+            return null;
+        }
+        for (Placement p : mPlacements.get(screen)) {
+            if (p.cellX < cellX + spanX && cellX < p.cellX + p.spanX
+                    && p.cellY < cellY + spanY && cellY < p.cellY + p.spanY) {
+                return p.item;
+            }
+        }
+        return null;
+    }
+
+    boolean isOccupied(int screen, int cellX, int cellY) {
+        return (mRows[screen * mCountY + cellY] & (1L << cellX)) != 0;
+    }
+}
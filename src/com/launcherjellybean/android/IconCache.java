@@ -17,6 +17,7 @@
 package com.launcherjellybean.android;
 
 import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
@@ -28,11 +29,31 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.drawable.Drawable;
 
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * 通过HashMap来实现图标和名称的缓存.根据ComponentName来获取.
+ * 通过ConcurrentHashMap来实现图标和名称的缓存.根据ComponentName来获取.
  * Cache of application icons.  Icons can be made from any thread.
+ *
+ * Looking up a cached icon doesn't lock. A missing icon is made by the thread that asked for
+ * it first, without holding any lock, so icons of different components are made in
+ * parallel; other threads that ask for the same component meanwhile wait for that one load.
+ *
+ * The icons of components that are bound (all apps and the workspace's app shortcuts, see
+ * {@link #setPinnedComponents(Collection)}) are pinned, the bound items hold on to them anyway.
+ * All other icons are evicted least recently used first once they exceed a budget of bytes
+ * that depends on the memory class, and are trimmed further by {@link #trimMemory(int)}.
  */
 public class IconCache {
     @SuppressWarnings("unused")
@@ -40,16 +61,102 @@ public class IconCache {
 
     private static final int INITIAL_ICON_CACHE_CAPACITY = 50;
 
+    // The unpinned icons may use up to 1/ICON_CACHE_MEMORY_FRACTION of the memory class
+    private static final int ICON_CACHE_MEMORY_FRACTION = 16;
+
+    private static final int LOADING = 0;
+    private static final int LOADED = 1;
+    private static final int FAILED = 2;
+
     private static class CacheEntry {
+        // Written by the loading thread before the state becomes LOADED
         public Bitmap icon;
         public String title;
+
+        private volatile int mState = LOADING;
+        volatile long lastUsed;
+
+        // Guarded by mTrimLock. counted is set once the entry is accounted for in mBytes
+        // (if it is unpinned) and can be evicted.
+        boolean counted;
+        boolean pinned;
+
+        int getByteCount() {
+            return icon != null ? icon.getRowBytes() * icon.getHeight() : 0;
+        }
+
+        boolean isLoaded() {
+            return mState == LOADED;
+        }
+
+        synchronized void finishLoading(boolean success) {
+            mState = success ? LOADED : FAILED;
+            notifyAll();
+        }
+
+        /** Waits for the load of the entry, returns whether it succeeded. */
+        boolean awaitLoaded() {
+            if (mState == LOADED) {
+                return true;
+            }
+            boolean interrupted = false;
+            synchronized (this) {
+                while (mState == LOADING) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return mState == LOADED;
+        }
     }
 
+    private static final Comparator<Map.Entry<ComponentName, CacheEntry>> LEAST_RECENTLY_USED =
+            new Comparator<Map.Entry<ComponentName, CacheEntry>>() {
+        public int compare(Map.Entry<ComponentName, CacheEntry> a,
+                Map.Entry<ComponentName, CacheEntry> b) {
+            final long lhs = a.getValue().lastUsed;
+            final long rhs = b.getValue().lastUsed;
+            return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+        }
+    };
+
     private final Bitmap mDefaultIcon;
     private final LauncherApplication mContext;
     private final PackageManager mPackageManager;
-    private final HashMap<ComponentName, CacheEntry> mCache =
-            new HashMap<ComponentName, CacheEntry>(INITIAL_ICON_CACHE_CAPACITY);
+    private final LabelStore mLabelStore;
+    private final IconStore mIconStore;
+    private final SharedBitmapStore mSharedBitmaps = new SharedBitmapStore();
+    private final ConcurrentHashMap<ComponentName, CacheEntry> mCache =
+            new ConcurrentHashMap<ComponentName, CacheEntry>(INITIAL_ICON_CACHE_CAPACITY);
+    // Orders the uses of entries for the LRU
+    private final AtomicLong mClock = new AtomicLong();
+
+    // Misses, pinning, accounting and eviction share this lock, lookups of cached icons don't
+    // take it
+    private final Object mTrimLock = new Object();
+    private Set<ComponentName> mPinnedComponents = Collections.emptySet();
+    private final int mMaxBytes;
+    private int mBytes;
+    // The components in mCache by package, so that a package change only drops its own icons
+    private final HashMap<String, HashSet<ComponentName>> mPackages =
+            new HashMap<String, HashSet<ComponentName>>();
+
+    private final AtomicInteger mHits = new AtomicInteger();
+    private final AtomicInteger mMisses = new AtomicInteger();
+    private final AtomicInteger mWaits = new AtomicInteger();
+    private final AtomicInteger mEvictions = new AtomicInteger();
+    // Guarded by mTrimLock. How many package invalidations there were, how many icons they
+    // dropped and how many icons of other packages they kept.
+    private int mPackageRemovals;
+    private int mPackageRemovalDropped;
+    private int mPackageRemovalKept;
+
     private int mIconDpi;
 
     public IconCache(LauncherApplication context) {
@@ -58,13 +165,33 @@ public class IconCache {
 
         mContext = context;
         mPackageManager = context.getPackageManager();
+        mLabelStore = new LabelStore(context);
         //根据系统信息获取最优先的图标的密度,如160dpi,240dpi,320dpi.
         mIconDpi = activityManager.getLauncherLargeIconDensity();
+        mIconStore = new IconStore(context, mIconDpi);
+        mMaxBytes = activityManager.getMemoryClass() * 1024 * 1024 / ICON_CACHE_MEMORY_FRACTION;
 
         // need to set mIconDpi before getting default icon
+        // Kept out of mSharedBitmaps: isDefaultIcon() compares instances, an app whose icon has
+        // the same pixels must not be handed this one
         mDefaultIcon = makeDefaultIcon();
     }
 
+    /** The persistent labels of launcher activities. */
+    LabelStore getLabelStore() {
+        return mLabelStore;
+    }
+
+    /** The persistent icons of launcher activities. */
+    IconStore getIconStore() {
+        return mIconStore;
+    }
+
+    /** Shares icon bitmaps with the same pixels, IconCache's own included. */
+    SharedBitmapStore getSharedBitmaps() {
+        return mSharedBitmaps;
+    }
+
     public Drawable getFullResDefaultActivityIcon() {
         return getFullResIcon(Resources.getSystem(),
                 android.R.mipmap.sym_def_app_icon);
@@ -136,8 +263,36 @@ public class IconCache {
      * Remove any records for the supplied ComponentName.
      */
     public void remove(ComponentName componentName) {
-        synchronized (mCache) {
-            mCache.remove(componentName);
+        synchronized (mTrimLock) {
+            removeLocked(componentName, null);
+        }
+    }
+
+    /**
+     * Removes the icons of all the components of a package that was removed, changed or
+     * became unavailable. The icons of other packages stay cached.
+     */
+    public void removePackage(String packageName) {
+        synchronized (mTrimLock) {
+            final HashSet<ComponentName> components = mPackages.remove(packageName);
+            int dropped = 0;
+            if (components != null) {
+                for (ComponentName component : components) {
+                    final CacheEntry entry = mCache.remove(component);
+                    if (entry != null) {
+                        dropped++;
+                        if (entry.counted && !entry.pinned) {
+                            mBytes -= entry.getByteCount();
+                        }
+                        if (entry.counted) {
+                            mSharedBitmaps.release(entry.icon);
+                        }
+                    }
+                }
+            }
+            mPackageRemovals++;
+            mPackageRemovalDropped += dropped;
+            mPackageRemovalKept += mCache.size();
         }
     }
 
@@ -145,8 +300,103 @@ public class IconCache {
      * Empty out the cache.
      */
     public void flush() {
-        synchronized (mCache) {
+        synchronized (mTrimLock) {
+            for (CacheEntry entry : mCache.values()) {
+                if (entry.counted) {
+                    mSharedBitmaps.release(entry.icon);
+                }
+            }
             mCache.clear();
+            mPackages.clear();
+            mBytes = 0;
+        }
+    }
+
+    /**
+     * Removes the entry of the component, if it is expected (or any entry, if expected is
+     * null), and returns whether it did.
+     */
+    private boolean removeLocked(ComponentName component, CacheEntry expected) {
+        final CacheEntry entry = mCache.get(component);
+        if (entry == null || (expected != null && entry != expected)) {
+            return false;
+        }
+        mCache.remove(component);
+        if (entry.counted && !entry.pinned) {
+            mBytes -= entry.getByteCount();
+        }
+        if (entry.counted) {
+            // Bound items may still draw it, so it is never recycled here
+            mSharedBitmaps.release(entry.icon);
+        }
+        final HashSet<ComponentName> components = mPackages.get(component.getPackageName());
+        if (components != null) {
+            components.remove(component);
+            if (components.isEmpty()) {
+                mPackages.remove(component.getPackageName());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Pins the icons of the given components, which are the ones that are bound right now, and
+     * unpins all others. Only unpinned icons count against the budget and get evicted.
+     */
+    void setPinnedComponents(Collection<ComponentName> components) {
+        final HashSet<ComponentName> pinned = new HashSet<ComponentName>(components);
+        synchronized (mTrimLock) {
+            mPinnedComponents = pinned;
+            for (Map.Entry<ComponentName, CacheEntry> e : mCache.entrySet()) {
+                final CacheEntry entry = e.getValue();
+                final boolean pin = pinned.contains(e.getKey());
+                if (entry.counted && entry.pinned != pin) {
+                    entry.pinned = pin;
+                    mBytes += pin ? -entry.getByteCount() : entry.getByteCount();
+                }
+            }
+            trimLocked(mMaxBytes);
+        }
+    }
+
+    /**
+     * Evicts unpinned icons for a {@link ComponentCallbacks2} trim level: half of them once the
+     * UI is hidden, all of them when memory runs low.
+     */
+    public void trimMemory(int level) {
+        synchronized (mTrimLock) {
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                    || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+                trimLocked(0);
+            } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN
+                    || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+                trimLocked(Math.min(mBytes, mMaxBytes) / 2);
+            }
+        }
+    }
+
+    /**
+     * Evicts the least recently used unpinned icons until they use at most maxBytes. An
+     * eviction goes down to 3/4 of the budget, so that it doesn't run again on the next miss.
+     */
+    private void trimLocked(int maxBytes) {
+        if (mBytes <= maxBytes) {
+            return;
+        }
+        final int target = maxBytes * 3 / 4;
+        final ArrayList<Map.Entry<ComponentName, CacheEntry>> unpinned =
+                new ArrayList<Map.Entry<ComponentName, CacheEntry>>();
+        for (Map.Entry<ComponentName, CacheEntry> e : mCache.entrySet()) {
+            if (e.getValue().counted && !e.getValue().pinned) {
+                unpinned.add(e);
+            }
+        }
+        Collections.sort(unpinned, LEAST_RECENTLY_USED);
+        final int N = unpinned.size();
+        for (int i = 0; i < N && mBytes > target; i++) {
+            if (removeLocked(unpinned.get(i).getKey(), unpinned.get(i).getValue())) {
+                mEvictions.incrementAndGet();
+            }
         }
     }
 
@@ -155,39 +405,33 @@ public class IconCache {
      * Fill in "application" with the icon and label for "info."
      */
     public void getTitleAndIcon(ApplicationInfo application, ResolveInfo info,
-            HashMap<Object, CharSequence> labelCache) {
-        synchronized (mCache) {
-            CacheEntry entry = cacheLocked(application.componentName, info, labelCache);
+            Map<Object, CharSequence> labelCache) {
+        CacheEntry entry = getEntry(application.componentName, info, labelCache);
 
-            application.title = entry.title;
-            application.iconBitmap = entry.icon;
-        }
+        application.title = entry.title;
+        application.iconBitmap = entry.icon;
     }
 
     public Bitmap getIcon(Intent intent) {
-        synchronized (mCache) {
-            final ResolveInfo resolveInfo = mPackageManager.resolveActivity(intent, 0);
-            ComponentName component = intent.getComponent();
-
-            if (resolveInfo == null || component == null) {
-                return mDefaultIcon;
-            }
+        final ResolveInfo resolveInfo = mPackageManager.resolveActivity(intent, 0);
+        ComponentName component = intent.getComponent();
 
-            CacheEntry entry = cacheLocked(component, resolveInfo, null);
-            return entry.icon;
+        if (resolveInfo == null || component == null) {
+            return mDefaultIcon;
         }
+
+        CacheEntry entry = getEntry(component, resolveInfo, null);
+        return entry.icon;
     }
 
     public Bitmap getIcon(ComponentName component, ResolveInfo resolveInfo,
-            HashMap<Object, CharSequence> labelCache) {
-        synchronized (mCache) {
-            if (resolveInfo == null || component == null) {
-                return null;
-            }
-
-            CacheEntry entry = cacheLocked(component, resolveInfo, labelCache);
-            return entry.icon;
+            Map<Object, CharSequence> labelCache) {
+        if (resolveInfo == null || component == null) {
+            return null;
         }
+
+        CacheEntry entry = getEntry(component, resolveInfo, labelCache);
+        return entry.icon;
     }
 
     public boolean isDefaultIcon(Bitmap icon) {
@@ -196,19 +440,56 @@ public class IconCache {
 
     /**根据ComponentName从Cache中获取应用的图标和名称,
      * 如果Cache中没有,则查找出应用的图标和名称信息并把它加入到Cache中(也把相关信息加入到labelCache中).*/
-    private CacheEntry cacheLocked(ComponentName componentName, ResolveInfo info,
-            HashMap<Object, CharSequence> labelCache) {
-        CacheEntry entry = mCache.get(componentName);
-        if (entry == null) {
-            entry = new CacheEntry();
-
-            mCache.put(componentName, entry);
+    private CacheEntry getEntry(ComponentName componentName, ResolveInfo info,
+            Map<Object, CharSequence> labelCache) {
+        while (true) {
+            CacheEntry entry = mCache.get(componentName);
+            if (entry == null) {
+                final CacheEntry loading = new CacheEntry();
+                synchronized (mTrimLock) {
+                    entry = mCache.putIfAbsent(componentName, loading);
+                    if (entry == null) {
+                        // Indexed right away, so removePackage() drops it even while it loads
+                        final String packageName = componentName.getPackageName();
+                        HashSet<ComponentName> components = mPackages.get(packageName);
+                        if (components == null) {
+                            components = new HashSet<ComponentName>();
+                            mPackages.put(packageName, components);
+                        }
+                        components.add(componentName);
+                    }
+                }
+                if (entry == null) {
+                    // We are the one to load it
+                    mMisses.incrementAndGet();
+                    loadEntry(componentName, loading, info, labelCache);
+                    return loading;
+                }
+            }
+            if (entry.isLoaded()) {
+                mHits.incrementAndGet();
+            } else {
+                // Another thread is loading it
+                mWaits.incrementAndGet();
+                if (!entry.awaitLoaded()) {
+                    // That load failed and took the entry out, try again
+                    continue;
+                }
+            }
+            entry.lastUsed = mClock.incrementAndGet();
+            return entry;
+        }
+    }
 
+    private void loadEntry(ComponentName componentName, CacheEntry entry, ResolveInfo info,
+            Map<Object, CharSequence> labelCache) {
+        boolean success = false;
+        try {
             ComponentName key = LauncherModel.getComponentNameFromResolveInfo(info);
             if (labelCache != null && labelCache.containsKey(key)) {
                 entry.title = labelCache.get(key).toString();
             } else {
-                entry.title = info.loadLabel(mPackageManager).toString();//获取应用名称
+                entry.title = mLabelStore.getLabel(info);//获取应用名称
                 if (labelCache != null) {
                     labelCache.put(key, entry.title);
                 }
@@ -217,21 +498,69 @@ public class IconCache {
                 entry.title = info.activityInfo.name;
             }
 
-            entry.icon = Utilities.createIconBitmap(
-                    getFullResIcon(info), mContext);
+            // Try the icon store before loading the package's resources
+            final long lastUpdateTime =
+                    mLabelStore.getLastUpdateTime(componentName.getPackageName());
+            if (lastUpdateTime != 0) {
+                entry.icon = mIconStore.getIcon(componentName, lastUpdateTime);
+            }
+            if (entry.icon == null) {
+                entry.icon = Utilities.createIconBitmap(
+                        getFullResIcon(info), mContext);
+                if (lastUpdateTime != 0) {
+                    mIconStore.putIcon(componentName, lastUpdateTime, entry.icon);
+                }
+            }
+            entry.icon = mSharedBitmaps.acquire(entry.icon);
+            entry.lastUsed = mClock.incrementAndGet();
+            success = true;
+        } finally {
+            synchronized (mTrimLock) {
+                if (!success) {
+                    removeLocked(componentName, entry);
+                } else if (mCache.get(componentName) == entry) {
+                    // Unless it was removed while it was loading
+                    entry.pinned = mPinnedComponents.contains(componentName);
+                    entry.counted = true;
+                    if (!entry.pinned) {
+                        mBytes += entry.getByteCount();
+                        trimLocked(mMaxBytes);
+                    }
+                } else {
+                    // Removed while it was loading, so nothing will release it later. The
+                    // waiting callers still get the icon, it is only no longer shared
+                    mSharedBitmaps.release(entry.icon);
+                }
+            }
+            entry.finishLoading(success);
         }
-        return entry;
     }
 
     /**返回一个Cache的影子拷贝*/
     public HashMap<ComponentName,Bitmap> getAllIcons() {
-        synchronized (mCache) {
-            HashMap<ComponentName,Bitmap> set = new HashMap<ComponentName,Bitmap>();
-            for (ComponentName cn : mCache.keySet()) {
-                final CacheEntry e = mCache.get(cn);
-                set.put(cn, e.icon);
+        HashMap<ComponentName,Bitmap> set = new HashMap<ComponentName,Bitmap>();
+        for (Map.Entry<ComponentName, CacheEntry> e : mCache.entrySet()) {
+            if (e.getValue().isLoaded()) {
+                set.put(e.getKey(), e.getValue().icon);
             }
-            return set;
         }
+        return set;
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        final int hits = mHits.get();
+        final int lookups = hits + mWaits.get() + mMisses.get();
+        synchronized (mTrimLock) {
+            writer.println(prefix + "IconCache: entries=" + mCache.size()
+                    + " unpinnedBytes=" + mBytes + "/" + mMaxBytes
+                    + " hits=" + hits + " misses=" + mMisses.get()
+                    + " waitedForLoad=" + mWaits.get()
+                    + " hitRate=" + (lookups > 0 ? hits * 100 / lookups : 0) + "%"
+                    + " evictions=" + mEvictions.get()
+                    + " packageRemovals=" + mPackageRemovals
+                    + " (dropped " + mPackageRemovalDropped
+                    + ", kept " + mPackageRemovalKept + ")");
+        }
+        mSharedBitmaps.dump(prefix + "  ", writer);
     }
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.launcherjellybean.android;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 数据库中图标BLOB的编解码,比PNG快得多.
+ * Reads and writes the saved icons of favorites (their ICON column) and of the IconStore.
+ * Icons are written as their raw, premultiplied ARGB_8888 pixels behind a small header,
+ * compressed with {@link LzCodec}: icons are mostly transparent corners and flat areas, which
+ * this shrinks well, and neither direction needs zlib or a PNG filter pass.
+ *
+ * Header: the magic bytes 'L' 'I' 'C', the format version, then width and height as big
+ * endian shorts. Blobs without the header are PNGs written by older versions and are still
+ * decoded with BitmapFactory, see {@link #isCurrent(byte[])} for migrating them.
+ */
+final class IconCodec {
+    private static final int VERSION = 1;
+    /** The first bytes of a blob in the current format, as an SQL blob literal. */
+    static final String SQL_HEADER = "X'4C494301'";
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_SIZE = 0xffff;
+
+    private IconCodec() {
+    }
+
+    /**
+     * Returns the icon in the current format, or null if it can't be written in it (only
+     * ARGB_8888 bitmaps without row padding can).
+     */
+    static byte[] encode(Bitmap bitmap) {
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        if (bitmap.getConfig() != Bitmap.Config.ARGB_8888 || bitmap.getRowBytes() != width * 4
+                || width <= 0 || height <= 0 || width > MAX_SIZE || height > MAX_SIZE) {
+            return null;
+        }
+        final ByteBuffer pixels = ByteBuffer.allocate(width * height * 4);
+        bitmap.copyPixelsToBuffer(pixels);
+        final byte[] src = pixels.array();
+
+        final byte[] dst = new byte[HEADER_SIZE + LzCodec.maxCompressedLength(src.length)];
+        dst[0] = 'L';
+        dst[1] = 'I';
+        dst[2] = 'C';
+        dst[3] = VERSION;
+        dst[4] = (byte) (width >>> 8);
+        dst[5] = (byte) width;
+        dst[6] = (byte) (height >>> 8);
+        dst[7] = (byte) height;
+        final int length = LzCodec.compress(src, dst, HEADER_SIZE);
+
+        final byte[] data = new byte[length];
+        System.arraycopy(dst, 0, data, 0, length);
+        return data;
+    }
+
+    /**
+     * Returns whether the blob is written in the current format. Icons in any other format
+     * should be written again the next time it is convenient.
+     */
+    static boolean isCurrent(byte[] data) {
+        return data != null && data.length >= HEADER_SIZE
+                && data[0] == 'L' && data[1] == 'I' && data[2] == 'C' && data[3] == VERSION;
+    }
+
+    /**
+     * Returns the icon in the blob, which may also be a PNG, or null if it can't be read.
+     */
+    static Bitmap decode(byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        if (!isCurrent(data)) {
+            return BitmapFactory.decodeByteArray(data, 0, data.length);
+        }
+        final int width = ((data[4] & 0xff) << 8) | (data[5] & 0xff);
+        final int height = ((data[6] & 0xff) << 8) | (data[7] & 0xff);
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        final byte[] pixels = new byte[width * height * 4];
+        if (!LzCodec.decompress(data, HEADER_SIZE, pixels)) {
+            return null;
+        }
+        final Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        bitmap.copyPixelsFromBuffer(ByteBuffer.wrap(pixels));
+        return bitmap;
+    }
+}
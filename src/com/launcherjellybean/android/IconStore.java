@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.launcherjellybean.android;
+
+import android.content.ComponentName;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 应用图标的持久化缓存,避免每次冷启动都去加载每个应用的Resources和图标.
+ * Icons of launcher activities as made by Utilities.createIconBitmap, kept in a database of
+ * their own across restarts. They are stored in the {@link IconCodec} format, so reading an
+ * icon is a quick decompression rather than a PNG decode. An entry is only used while its
+ * package's lastUpdateTime, the icon density and the locale are the same as when it was stored.
+ *
+ * New icons are kept in memory until {@link #save()} writes them in one transaction. Safe to
+ * use from any thread.
+ */
+class IconStore {
+    private static final String TAG = "Launcher.IconStore";
+
+    static final String DATABASE_NAME = "icons.db";
+    private static final int DATABASE_VERSION = 2;
+
+    private static final String TABLE_ICONS = "icons";
+    private static final String COMPONENT = "component";
+    private static final String PACKAGE = "package";
+    private static final String LAST_UPDATE_TIME = "lastUpdateTime";
+    private static final String ICON_DPI = "iconDpi";
+    private static final String LOCALE = "locale";
+    private static final String ICON = "icon";
+
+    private static final String[] COLUMNS = {
+        LAST_UPDATE_TIME, ICON_DPI, LOCALE, ICON
+    };
+
+    private static class DatabaseHelper extends SQLiteOpenHelper {
+        DatabaseHelper(Context context) {
+            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE_ICONS + " (" +
+                    COMPONENT + " TEXT PRIMARY KEY," +
+                    PACKAGE + " TEXT NOT NULL," +
+                    LAST_UPDATE_TIME + " INTEGER NOT NULL," +
+                    ICON_DPI + " INTEGER NOT NULL," +
+                    LOCALE + " TEXT NOT NULL," +
+                    ICON + " BLOB NOT NULL" +
+                    ");");
+            db.execSQL("CREATE INDEX " + TABLE_ICONS + "_" + PACKAGE + " ON " + TABLE_ICONS
+                    + " (" + PACKAGE + ");");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // It's only a cache, start over. Version 1 stored the raw pixels
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_ICONS);
+            onCreate(db);
+        }
+    }
+
+    private static class PendingIcon {
+        final String packageName;
+        final long lastUpdateTime;
+        final String locale;
+        final Bitmap icon;
+
+        PendingIcon(String packageName, long lastUpdateTime, String locale, Bitmap icon) {
+            this.packageName = packageName;
+            this.lastUpdateTime = lastUpdateTime;
+            this.locale = locale;
+            this.icon = icon;
+        }
+    }
+
+    private final DatabaseHelper mOpenHelper;
+    private final int mIconDpi;
+
+    // Icons that haven't been written yet, by flattened component name. They are the bitmaps
+    // IconCache holds anyway, the pixels are only copied when they are written. Guarded by this.
+    private final HashMap<String, PendingIcon> mPending = new HashMap<String, PendingIcon>();
+
+    IconStore(Context context, int iconDpi) {
+        mOpenHelper = new DatabaseHelper(context);
+        mIconDpi = iconDpi;
+    }
+
+    /**
+     * Returns the stored icon of the component, or null if there is none for this
+     * lastUpdateTime of its package.
+     */
+    Bitmap getIcon(ComponentName component, long lastUpdateTime) {
+        final String key = component.flattenToShortString();
+        final String locale = Locale.getDefault().toString();
+        synchronized (this) {
+            final PendingIcon pending = mPending.get(key);
+            if (pending != null) {
+                return pending.lastUpdateTime == lastUpdateTime && locale.equals(pending.locale)
+                        ? pending.icon : null;
+            }
+        }
+
+        final byte[] data;
+        Cursor c = null;
+        try {
+            c = mOpenHelper.getReadableDatabase().query(TABLE_ICONS, COLUMNS,
+                    COMPONENT + "=?", new String[] { key }, null, null, null);
+            if (!c.moveToFirst() || c.getLong(0) != lastUpdateTime || c.getInt(1) != mIconDpi
+                    || !locale.equals(c.getString(2))) {
+                return null;
+            }
+            data = c.getBlob(3);
+        } catch (SQLException e) {
+            Log.w(TAG, "Could not read icon of " + key, e);
+            return null;
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+
+        // Nothing but the current format is ever written here
+        return IconCodec.isCurrent(data) ? IconCodec.decode(data) : null;
+    }
+
+    /**
+     * Remembers the icon of the component, made for this lastUpdateTime of its package. It is
+     * written by the next {@link #save()}.
+     */
+    void putIcon(ComponentName component, long lastUpdateTime, Bitmap icon) {
+        if (icon.getConfig() != Bitmap.Config.ARGB_8888
+                || icon.getRowBytes() != icon.getWidth() * 4) {
+            return;
+        }
+        final PendingIcon pending = new PendingIcon(component.getPackageName(), lastUpdateTime,
+                Locale.getDefault().toString(), icon);
+        synchronized (this) {
+            mPending.put(component.flattenToShortString(), pending);
+        }
+    }
+
+    /**
+     * Forgets the icons of a package that was added, changed or removed. Icons a concurrent
+     * save() still writes are harmless, they are for the package's old lastUpdateTime.
+     */
+    void removePackage(String packageName) {
+        synchronized (this) {
+            final Iterator<PendingIcon> iter = mPending.values().iterator();
+            while (iter.hasNext()) {
+                if (packageName.equals(iter.next().packageName)) {
+                    iter.remove();
+                }
+            }
+        }
+        try {
+            mOpenHelper.getWritableDatabase().delete(TABLE_ICONS, PACKAGE + "=?",
+                    new String[] { packageName });
+        } catch (SQLException e) {
+            Log.w(TAG, "Could not remove the icons of " + packageName, e);
+        }
+    }
+
+    /**
+     * Writes the icons remembered since the last save, in one transaction.
+     */
+    void save() {
+        final HashMap<String, PendingIcon> pending;
+        synchronized (this) {
+            if (mPending.isEmpty()) {
+                return;
+            }
+            pending = new HashMap<String, PendingIcon>(mPending);
+        }
+
+        final long t = LauncherModel.DEBUG_LOADERS ? System.currentTimeMillis() : 0;
+        boolean success = false;
+        try {
+            final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                final ContentValues values = new ContentValues();
+                for (Map.Entry<String, PendingIcon> entry : pending.entrySet()) {
+                    final PendingIcon icon = entry.getValue();
+                    final byte[] data = IconCodec.encode(icon.icon);
+                    if (data == null) {
+                        continue;
+                    }
+                    values.clear();
+                    values.put(COMPONENT, entry.getKey());
+                    values.put(PACKAGE, icon.packageName);
+                    values.put(LAST_UPDATE_TIME, icon.lastUpdateTime);
+                    values.put(ICON_DPI, mIconDpi);
+                    values.put(LOCALE, icon.locale);
+                    values.put(ICON, data);
+                    db.replace(TABLE_ICONS, null, values);
+                }
+                db.setTransactionSuccessful();
+                success = true;
+            } finally {
+                db.endTransaction();
+            }
+        } catch (SQLException e) {
+            Log.w(TAG, "Could not write icon store", e);
+        }
+
+        if (success) {
+            synchronized (this) {
+                // Unless they were replaced or removed in the meantime
+                for (Map.Entry<String, PendingIcon> entry : pending.entrySet()) {
+                    if (mPending.get(entry.getKey()) == entry.getValue()) {
+                        mPending.remove(entry.getKey());
+                    }
+                }
+            }
+            if (LauncherModel.DEBUG_LOADERS) {
+                Log.d(TAG, "wrote " + pending.size() + " icons in "
+                        + (System.currentTimeMillis() - t) + "ms");
+            }
+        }
+    }
+}
@@ -149,8 +149,13 @@ class ItemInfo {
         values.put(LauncherSettings.Favorites.CELLY, cellY);
     }
 
-    /**返回表示Bitmap的字节数组,即把Bitmap序列化了*/
+    /**返回表示Bitmap的字节数组,即把Bitmap序列化了. Read it back with IconCodec.decode().*/
     static byte[] flattenBitmap(Bitmap bitmap) {
+        final byte[] data = IconCodec.encode(bitmap);
+        if (data != null) {
+            return data;
+        }
+
         // Try go guesstimate how much space the icon will take when serialized
         // to avoid unnecessary allocations/copies during the write.
         int size = bitmap.getWidth() * bitmap.getHeight() * 4;
@@ -171,6 +176,7 @@ class ItemInfo {
         if (bitmap != null) {
             byte[] data = flattenBitmap(bitmap);
             values.put(LauncherSettings.Favorites.ICON, data);
+            values.put(LauncherSettings.Favorites.ICON_HASH, Utilities.hashIconPixels(bitmap));
         }
     }
 
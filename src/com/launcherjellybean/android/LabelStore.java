@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.launcherjellybean.android;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 应用名称的持久化缓存,避免每次冷启动都去加载每个应用的Resources.
+ * Labels of launcher activities, kept on disk across restarts. Loading a label means loading
+ * the target app's Resources, which is the expensive part of loading all apps. An entry is
+ * only used while its package's lastUpdateTime and the locale are the same as when it was
+ * stored. Safe to use from any thread.
+ */
+class LabelStore {
+    private static final String TAG = "Launcher.LabelStore";
+
+    static final String FILE_NAME = "labels.cache";
+
+    private static final int MAGIC = 0x4c4c4231; // "LLB1"
+    private static final int VERSION = 1;
+
+    private static class Entry {
+        final long lastUpdateTime;
+        final String label;
+
+        Entry(long lastUpdateTime, String label) {
+            this.lastUpdateTime = lastUpdateTime;
+            this.label = label;
+        }
+    }
+
+    private final File mFile;
+    private final PackageManager mPackageManager;
+
+    // All guarded by this
+    private final HashMap<String, Entry> mLabels = new HashMap<String, Entry>();
+    private final HashMap<String, Long> mLastUpdateTimes = new HashMap<String, Long>();
+    private String mLocale;
+    private boolean mLoaded;
+    private boolean mDirty;
+
+    LabelStore(Context context) {
+        mFile = new File(context.getFilesDir(), FILE_NAME);
+        mPackageManager = context.getPackageManager();
+    }
+
+    /**
+     * Returns the label of the activity, from the store if it is still valid, otherwise from
+     * the package manager.
+     */
+    String getLabel(ResolveInfo info) {
+        final ComponentName component = LauncherModel.getComponentNameFromResolveInfo(info);
+        final String key = component.flattenToShortString();
+        final long lastUpdateTime = getLastUpdateTime(component.getPackageName());
+        synchronized (this) {
+            loadLocked();
+            final Entry entry = mLabels.get(key);
+            if (entry != null && entry.lastUpdateTime == lastUpdateTime) {
+                return entry.label;
+            }
+        }
+
+        // Not under the lock, this is the slow part
+        final CharSequence label = info.loadLabel(mPackageManager);
+        final String title = label != null ? label.toString() : component.getClassName();
+        synchronized (this) {
+            mLabels.put(key, new Entry(lastUpdateTime, title));
+            mDirty = true;
+        }
+        return title;
+    }
+
+    /**
+     * Returns the lastUpdateTime of the package, or 0 if it isn't installed. It is looked up
+     * once and remembered until the package changes, see {@link #removePackage(String)}.
+     */
+    long getLastUpdateTime(String packageName) {
+        synchronized (this) {
+            final Long time = mLastUpdateTimes.get(packageName);
+            if (time != null) {
+                return time;
+            }
+        }
+        long time;
+        try {
+            time = mPackageManager.getPackageInfo(packageName, 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            time = 0;
+        }
+        synchronized (this) {
+            mLastUpdateTimes.put(packageName, time);
+        }
+        return time;
+    }
+
+    /**
+     * Forgets the labels of a package that was added, changed or removed.
+     */
+    synchronized void removePackage(String packageName) {
+        mLastUpdateTimes.remove(packageName);
+        final Iterator<String> iter = mLabels.keySet().iterator();
+        while (iter.hasNext()) {
+            final String key = iter.next();
+            if (key.startsWith(packageName) && key.length() > packageName.length()
+                    && key.charAt(packageName.length()) == '/') {
+                iter.remove();
+                mDirty = true;
+            }
+        }
+    }
+
+    /**
+     * Forgets all labels, e.g. because the locale changed.
+     */
+    synchronized void clear() {
+        mLoaded = true;
+        mLocale = Locale.getDefault().toString();
+        mLabels.clear();
+        mLastUpdateTimes.clear();
+        mDirty = true;
+    }
+
+    private void loadLocked() {
+        final String locale = Locale.getDefault().toString();
+        if (mLoaded) {
+            if (!locale.equals(mLocale)) {
+                // Missed the broadcast, labels are for another language
+                clear();
+            }
+            return;
+        }
+        mLoaded = true;
+        mLocale = locale;
+        if (!mFile.exists()) {
+            return;
+        }
+
+        final long t = LauncherModel.DEBUG_LOADERS ? System.currentTimeMillis() : 0;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || !locale.equals(in.readUTF())) {
+                if (LauncherModel.DEBUG_LOADERS) Log.d(TAG, "label store is out of date");
+                return;
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final String key = in.readUTF();
+                final long lastUpdateTime = in.readLong();
+                mLabels.put(key, new Entry(lastUpdateTime, in.readUTF()));
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read label store", e);
+            mLabels.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+        if (LauncherModel.DEBUG_LOADERS) {
+            Log.d(TAG, "read " + mLabels.size() + " labels in "
+                    + (System.currentTimeMillis() - t) + "ms");
+        }
+    }
+
+    /**
+     * Writes the labels to disk if any changed. The file is replaced atomically.
+     */
+    void save() {
+        final HashMap<String, Entry> labels;
+        final String locale;
+        synchronized (this) {
+            if (!mDirty) {
+                return;
+            }
+            mDirty = false;
+            labels = new HashMap<String, Entry>(mLabels);
+            locale = mLocale;
+        }
+
+        final File tmp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        boolean success = false;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(locale);
+            out.writeInt(labels.size());
+            for (Map.Entry<String, Entry> entry : labels.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().lastUpdateTime);
+                out.writeUTF(entry.getValue().label);
+            }
+            out.flush();
+            success = true;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write label store", e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    success = false;
+                }
+            }
+        }
+
+        if (success) {
+            success = tmp.renameTo(mFile);
+        }
+        if (!success) {
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            synchronized (this) {
+                mDirty = true;
+            }
+        }
+    }
+}
@@ -249,7 +249,7 @@ public final class Launcher extends Activity
 
     private static LocaleConfiguration sLocaleConfiguration = null;
 
-    private static HashMap<Long, FolderInfo> sFolders = new HashMap<Long, FolderInfo>();
+    private static LongHashMap<FolderInfo> sFolders = new LongHashMap<FolderInfo>();
 
     private Intent mAppMarketIntent = null;
 
@@ -717,6 +717,9 @@ public final class Launcher extends Activity
         mPaused = true;
         mDragController.cancelDrag();
         mDragController.resetLastGestureUpTime();
+
+        // Don't keep item moves waiting for their batch while we're in the background
+        LauncherModel.flushPendingUpdates();
     }
 
     @Override
@@ -2660,6 +2663,7 @@ public final class Launcher extends Activity
     @Override
     public void onTrimMemory(int level) {
         super.onTrimMemory(level);
+        mIconCache.trimMemory(level);
         if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
             mAppsCustomizeTabHost.onTrimMemory();
         }
@@ -3203,7 +3207,10 @@ public final class Launcher extends Activity
      */
     public void bindItems(ArrayList<ItemInfo> shortcuts, int start, int end) {
         setLoadOnResume();
+        addItemsToWorkspace(shortcuts, start, end);
+    }
 
+    private void addItemsToWorkspace(ArrayList<ItemInfo> shortcuts, int start, int end) {
         // Get the list of added shortcuts and intersect them with the set of shortcuts here
         Set<String> newApps = new HashSet<String>();
         newApps = mSharedPrefs.getStringSet(InstallShortcutReceiver.NEW_APPS_LIST_KEY, newApps);
@@ -3259,7 +3266,7 @@ public final class Launcher extends Activity
     /**
      * Implementation of the method from LauncherModel.Callbacks.
      */
-    public void bindFolders(HashMap<Long, FolderInfo> folders) {
+    public void bindFolders(LongHashMap<FolderInfo> folders) {
         setLoadOnResume();
         sFolders.clear();
         sFolders.putAll(folders);
@@ -3272,7 +3279,10 @@ public final class Launcher extends Activity
      */
     public void bindAppWidget(LauncherAppWidgetInfo item) {
         setLoadOnResume();
+        addAppWidgetToWorkspace(item);
+    }
 
+    private void addAppWidgetToWorkspace(LauncherAppWidgetInfo item) {
         final long start = DEBUG_WIDGETS ? SystemClock.uptimeMillis() : 0;
         if (DEBUG_WIDGETS) {
             Log.d(TAG, "bindAppWidget: " + item);
@@ -3335,31 +3345,108 @@ public final class Launcher extends Activity
 
         // Animate up any icons as necessary
         if (mVisible || mWorkspaceLoading) {
-            Runnable newAppsRunnable = new Runnable() {
-                @Override
-                public void run() {
-                    runNewAppsAnimation(false);
-                }
-            };
+            animateNewShortcuts();
+        }
 
-            boolean willSnapPage = mNewShortcutAnimatePage > -1 &&
-                    mNewShortcutAnimatePage != mWorkspace.getCurrentPage();
-            if (canRunNewAppsAnimation()) {
-                // If the user has not interacted recently, then either snap to the new page to show
-                // the new-apps animation or just run them if they are to appear on the current page
-                if (willSnapPage) {
-                    mWorkspace.snapToPage(mNewShortcutAnimatePage, newAppsRunnable);
-                } else {
-                    runNewAppsAnimation(false);
-                }
+        mWorkspaceLoading = false;
+    }
+
+    private void animateNewShortcuts() {
+        Runnable newAppsRunnable = new Runnable() {
+            @Override
+            public void run() {
+                runNewAppsAnimation(false);
+            }
+        };
+
+        boolean willSnapPage = mNewShortcutAnimatePage > -1 &&
+                mNewShortcutAnimatePage != mWorkspace.getCurrentPage();
+        if (canRunNewAppsAnimation()) {
+            // If the user has not interacted recently, then either snap to the new page to show
+            // the new-apps animation or just run them if they are to appear on the current page
+            if (willSnapPage) {
+                mWorkspace.snapToPage(mNewShortcutAnimatePage, newAppsRunnable);
             } else {
-                // If the user has interacted recently, then just add the items in place if they
-                // are on another page (or just normally if they are added to the current page)
-                runNewAppsAnimation(willSnapPage);
+                runNewAppsAnimation(false);
             }
+        } else {
+            // If the user has interacted recently, then just add the items in place if they
+            // are on another page (or just normally if they are added to the current page)
+            runNewAppsAnimation(willSnapPage);
         }
+    }
 
-        mWorkspaceLoading = false;
+    /**
+     * Remove the views of items whose favorites rows were changed or deleted by somebody else.
+     * Unlike the other bind calls this doesn't force a reload when the launcher resumes.
+     *
+     * Implementation of the method from LauncherModel.Callbacks.
+     */
+    public void bindItemsRemoved(ArrayList<ItemInfo> items) {
+        final Folder openFolder = mWorkspace.getOpenFolder();
+        for (ItemInfo item : items) {
+            if (item instanceof ShortcutInfo &&
+                    item.container != LauncherSettings.Favorites.CONTAINER_DESKTOP &&
+                    item.container != LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
+                // The model has already taken it out of the folder with FolderInfo.remove()
+                continue;
+            }
+
+            if (openFolder != null && openFolder.getInfo() == item) {
+                closeFolder();
+            }
+            View view = mWorkspace.getViewForTag(item);
+            if (view != null) {
+                CellLayout layout = mWorkspace.getParentCellLayoutForView(view);
+                if (layout != null) {
+                    layout.removeView(view);
+                }
+                if (view instanceof DropTarget) {
+                    mDragController.removeDropTarget((DropTarget) view);
+                }
+            }
+            if (item instanceof LauncherAppWidgetInfo) {
+                removeAppWidget((LauncherAppWidgetInfo) item);
+            } else if (item instanceof FolderInfo) {
+                // Drops the listeners of the old FolderIcon, a changed folder is bound again
+                item.unbind();
+                removeFolder((FolderInfo) item);
+            }
+        }
+        mWorkspace.requestLayout();
+    }
+
+    /**
+     * Add the views of items whose favorites rows were inserted or changed by somebody else.
+     * Unlike the other bind calls this doesn't force a reload when the launcher resumes.
+     *
+     * Implementation of the method from LauncherModel.Callbacks.
+     */
+    public void bindItemsAdded(ArrayList<ItemInfo> items) {
+        final ArrayList<ItemInfo> workspaceItems = new ArrayList<ItemInfo>();
+        for (ItemInfo item : items) {
+            if (item instanceof FolderInfo) {
+                sFolders.put(item.id, (FolderInfo) item);
+            }
+            if (item instanceof LauncherAppWidgetInfo) {
+                addAppWidgetToWorkspace((LauncherAppWidgetInfo) item);
+            } else if (item.container == LauncherSettings.Favorites.CONTAINER_DESKTOP ||
+                    item.container == LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
+                workspaceItems.add(item);
+            }
+            // Shortcuts in folders have already been added with FolderInfo.add() by the model
+        }
+        addItemsToWorkspace(workspaceItems, 0, workspaceItems.size());
+
+        // Shortcuts from InstallShortcutReceiver are animated up like after a full load; while
+        // a load is running finishBindingItems() takes care of them
+        if (!mWorkspaceLoading && !mNewShortcutAnimateViews.isEmpty()) {
+            if (mVisible) {
+                animateNewShortcuts();
+            } else {
+                runNewAppsAnimation(true);
+            }
+        }
     }
 
     private boolean canRunNewAppsAnimation() {
@@ -3480,10 +3567,11 @@ public final class Launcher extends Activity
      *
      * Implementation of the method from LauncherModel.Callbacks.
      */
-    public void bindAppsUpdated(ArrayList<ApplicationInfo> apps) {
+    public void bindAppsUpdated(ArrayList<ApplicationInfo> apps,
+            ArrayList<ItemInfo> workspaceItems) {
         setLoadOnResume();
         if (mWorkspace != null) {
-            mWorkspace.updateShortcuts(apps);
+            mWorkspace.updateShortcuts(apps, workspaceItems);
         }
 
         if (mAppsCustomizeContent != null) {
@@ -3496,9 +3584,10 @@ public final class Launcher extends Activity
      *
      * Implementation of the method from LauncherModel.Callbacks.
      */
-    public void bindAppsRemoved(ArrayList<ApplicationInfo> apps, boolean permanent) {
+    public void bindAppsRemoved(ArrayList<ApplicationInfo> apps,
+            ArrayList<ItemInfo> workspaceItems, boolean permanent) {
         if (permanent) {
-            mWorkspace.removeItems(apps);
+            mWorkspace.removeItems(apps, workspaceItems);
         }
 
         if (mAppsCustomizeContent != null) {
@@ -3729,6 +3818,8 @@ public final class Launcher extends Activity
         for (int i = 0; i < sDumpLogs.size(); i++) {
             writer.println("  " + sDumpLogs.get(i));
         }
+        writer.println(" ");
+        mModel.dump("  ", writer);
     }
 }
 
@@ -24,6 +24,7 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.res.Configuration;
 import android.database.ContentObserver;
+import android.net.Uri;
 import android.os.Handler;
 
 import com.launcherjellybean.android.R;
@@ -95,10 +96,17 @@ public class LauncherApplication extends Application {
     private final ContentObserver mFavoritesObserver = new ContentObserver(new Handler()) {
         @Override
         public void onChange(boolean selfChange) {
-            // If the database has ever changed, then we really need to force a reload of the
-            // workspace on the next load
-            mModel.resetLoadedState(false, true);
-            mModel.startLoaderFromBackground();
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            // Changes to a single row are applied to the model in place. For anything else
+            // we really need to force a reload of the workspace on the next load
+            if (!mModel.onFavoriteChanged(uri)) {
+                mModel.resetLoadedState(false, true);
+                mModel.startLoaderFromBackground();
+            }
         }
     };
 
@@ -21,12 +21,14 @@ import android.appwidget.AppWidgetManager;
 import android.appwidget.AppWidgetProviderInfo;
 import android.content.BroadcastReceiver;
 import android.content.ComponentName;
-import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.Intent.ShortcutIconResource;
+import android.content.OperationApplicationException;
 import android.content.pm.ActivityInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
@@ -36,28 +38,41 @@ import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Environment;
-import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Parcelable;
 import android.os.Process;
 import android.os.RemoteException;
 import android.os.SystemClock;
+import android.text.TextUtils;
 import android.util.Log;
 
 import com.launcherjellybean.android.R;
 import com.launcherjellybean.android.InstallWidgetReceiver.WidgetMimeTypeHandlerData;
 
+import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
 import java.net.URISyntaxException;
+import java.text.CollationKey;
 import java.text.Collator;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 全局的Model对象,"Model" of MVC pattern,负责加载数据到内存,同时内存中保存一份数据库中数据的拷贝.
@@ -79,21 +94,42 @@ public class LauncherModel extends BroadcastReceiver {
 
     private static final int ITEMS_CHUNK = 6; //每批次加载到桌面的个数. batch size for the workspace icons
     private final boolean mAppsCanBeOnExternalStorage;
-    private int mBatchSize; // 0 is all apps at once
+    private int mBatchSize; // 0 is all apps at once, < 0 sizes the batches adaptively
     private int mAllAppsLoadDelay; // milliseconds between batches,每加载一批应用到缓存后睡眠的时间
 
+    // Adaptive all apps batches: the most time building one batch and binding it on the UI
+    // thread should take, and the longest the loader waits for the UI to catch up
+    private static final long ADAPTIVE_BATCH_BUILD_MS = 100;
+    private static final float ADAPTIVE_BIND_BUDGET_MS = 8;
+    private static final long ADAPTIVE_MAX_BIND_WAIT_MS = 500;
+    // Per app cost of the last all apps batch, built on the loader and bound on the UI thread
+    private volatile float mBuildMillisPerApp;
+    private volatile float mBindMillisPerApp;
+    private volatile String mAllAppsLoadStats = "not loaded";
+    private int mWorkspaceLoadThreads; // <= 1 decodes the workspace on the loader thread only
+    private boolean mLoadCurrentScreenFirst; // load and bind the current screen before the others
+    private int mPackageUpdateDelay; // milliseconds package changes are held back to be merged
+
+    // Package changes waiting to be applied, by package name. Guarded by itself.
+    private final LinkedHashMap<String, PendingPackageOps> mPendingPackageOps =
+            new LinkedHashMap<String, PendingPackageOps>();
+    private boolean mPackageUpdatesScheduled; // guarded by mPendingPackageOps
+
     private final LauncherApplication mApp;
     private final Object mLock = new Object();
     private DeferredHandler mHandler = new DeferredHandler();
     private LoaderTask mLoaderTask;
     
-    //带有looper的一个线程,这里作为worker线程
-    private static final HandlerThread sWorkerThread = new HandlerThread("launcher-loader");
-    static {
-        sWorkerThread.start();
-    }
-    //可以通过此handler往sWorkerThread worker线程里发送消息的handler
-    private static final Handler sWorker = new Handler(sWorkerThread.getLooper());
+    //worker线程,按优先级通道执行模型的所有后台任务
+    private static final LoaderScheduler sWorker = new LoaderScheduler("launcher-loader");
+
+    // Decodes favorites rows (intent parsing, resolving and icons) for the loader thread.
+    // Created the first time it is needed, see getWorkspaceDecoder().
+    private static ThreadPoolExecutor sWorkspaceDecoder;
+
+    // Cells taken while loading the workspace (+1 screen for the hotseat). Reused for every
+    // load, only touched on the worker thread.
+    private static final CellOccupancy sOccupied = new CellOccupancy(Launcher.SCREEN_COUNT + 1);
 
     // We start off with everything not loaded.  After that, we assume that
     // our monitoring of the package manager provides all updates and we never
@@ -108,7 +144,7 @@ public class LauncherModel extends BroadcastReceiver {
 
     // sItemsIdMap maps *all* the ItemInfos (shortcuts, folders, and widgets) created by
     // LauncherModel to their ids
-    static final HashMap<Long, ItemInfo> sItemsIdMap = new HashMap<Long, ItemInfo>();
+    static final LongHashMap<ItemInfo> sItemsIdMap = new LongHashMap<ItemInfo>();
 
     // sItems is passed to bindItems, which expects a list of all folders and shortcuts created by
     //       LauncherModel that are directly on the home screen (however, no widgets or shortcuts
@@ -120,14 +156,59 @@ public class LauncherModel extends BroadcastReceiver {
         new ArrayList<LauncherAppWidgetInfo>();
 
     // sFolders is all FolderInfos created by LauncherModel. Passed to bindFolders()
-    static final HashMap<Long, FolderInfo> sFolders = new HashMap<Long, FolderInfo>();
+    static final LongHashMap<FolderInfo> sFolders = new LongHashMap<FolderInfo>();
+
+    // sItemsByPackage maps a package name to all the shortcuts (including the ones in folders)
+    // and widgets of that package, so that package changes only have to look at those items.
+    // It is kept in sync with sItemsIdMap, see addToPackageIndex()/removeFromPackageIndex().
+    static final HashMap<String, ArrayList<ItemInfo>> sItemsByPackage =
+        new HashMap<String, ArrayList<ItemInfo>>();
 
     // sDbIconCache is the set of ItemInfos that need to have their icons updated in the database
-    //需要更新它们自己的icon的 ItemInfo -> 图标字节 的Map, 需要与缓存区mIconCache对比是否相同再进行选择更新
-    static final HashMap<Object, byte[]> sDbIconCache = new HashMap<Object, byte[]>();
+    //需要更新它们自己的icon的 ItemInfo -> 数据库中图标的指纹(iconHash) 的Map, 需要与缓存区mIconCache
+    //中图标的指纹对比是否相同再进行选择更新
+    static final HashMap<Object, Long> sDbIconCache = new HashMap<Object, Long>();
+
+    // On-disk copy of the model above that is bound on a cold start before the database has
+    // been read, see WorkspaceSnapshot. Only the first workspace load of the process uses it.
+    private static WorkspaceSnapshot sWorkspaceSnapshot;
+    private static boolean sWorkspaceSnapshotUsed;
+    // false while loadWorkspace is rebuilding the lists above, so that we never save half a model
+    private static boolean sWorkspaceModelComplete;
 
     // </ only access in worker thread >
 
+    // The lists above as last published by the worker thread, see publishModelSnapshot().
+    // Any thread can read it without locking.
+    private static volatile ModelSnapshot sModelSnapshot = ModelSnapshot.EMPTY;
+
+    // How long to wait after the last change to the model before saving the snapshot again
+    private static final int WORKSPACE_SNAPSHOT_DELAY = 5000;
+
+    private static final Runnable sWriteWorkspaceSnapshot = new Runnable() {
+        public void run() {
+            if (sWorkspaceSnapshot != null && sWorkspaceModelComplete) {
+                sWorkspaceSnapshot.write(sWorkspaceItems, sFolders.values(), sAppWidgets,
+                        mCellCountX, mCellCountY);
+            }
+        }
+    };
+
+    // Updates to existing rows that haven't been written yet, coalesced per item id. They are
+    // written as one batch, see updateItemInDatabaseHelper() and writePendingUpdates(). Only
+    // touched on the worker thread.
+    private static final LongHashMap<ContentValues> sPendingUpdates =
+            new LongHashMap<ContentValues>();
+    private static ContentResolver sPendingUpdatesResolver;
+    private static boolean sPendingUpdatesScheduled;
+    private static int sPendingUpdatesDelay;
+
+    private static final Runnable sWritePendingUpdates = new Runnable() {
+        public void run() {
+            writePendingUpdates();
+        }
+    };
+
     private IconCache mIconCache;//已经加载的图标,缓存区
     private Bitmap mDefaultIcon;
 
@@ -141,17 +222,21 @@ public class LauncherModel extends BroadcastReceiver {
         public int getCurrentWorkspaceScreen();
         public void startBinding();
         public void bindItems(ArrayList<ItemInfo> shortcuts, int start, int end);
-        public void bindFolders(HashMap<Long,FolderInfo> folders);
+        public void bindFolders(LongHashMap<FolderInfo> folders);
         public void finishBindingItems();
         public void bindAppWidget(LauncherAppWidgetInfo info);
         public void bindAllApplications(ArrayList<ApplicationInfo> apps);
         public void bindAppsAdded(ArrayList<ApplicationInfo> apps);
-        public void bindAppsUpdated(ArrayList<ApplicationInfo> apps);
-        public void bindAppsRemoved(ArrayList<ApplicationInfo> apps, boolean permanent);
+        public void bindAppsUpdated(ArrayList<ApplicationInfo> apps,
+                ArrayList<ItemInfo> workspaceItems);
+        public void bindAppsRemoved(ArrayList<ApplicationInfo> apps,
+                ArrayList<ItemInfo> workspaceItems, boolean permanent);
         public void bindPackagesUpdated();
         public boolean isAllAppsVisible();
         public boolean isAllAppsButtonRank(int rank);
         public void bindSearchablesChanged();
+        public void bindItemsRemoved(ArrayList<ItemInfo> items);
+        public void bindItemsAdded(ArrayList<ItemInfo> items);
     }
 
     LauncherModel(LauncherApplication app, IconCache iconCache) {
@@ -162,20 +247,45 @@ public class LauncherModel extends BroadcastReceiver {
 
         mDefaultIcon = Utilities.createIconBitmap(
                 mIconCache.getFullResDefaultActivityIcon(), app);
+        sWorkspaceSnapshot = new WorkspaceSnapshot(app, iconCache);
 
         final Resources res = app.getResources();
         mAllAppsLoadDelay = res.getInteger(R.integer.config_allAppsBatchLoadDelay);
         mBatchSize = res.getInteger(R.integer.config_allAppsBatchSize);
+        mWorkspaceLoadThreads = Math.min(res.getInteger(R.integer.config_workspaceLoadThreads),
+                Runtime.getRuntime().availableProcessors());
+        mLoadCurrentScreenFirst = res.getBoolean(R.bool.config_workspaceLoadCurrentScreenFirst);
+        sPendingUpdatesDelay = res.getInteger(R.integer.config_workspaceWriteDelay);
+        mPackageUpdateDelay = res.getInteger(R.integer.config_packageUpdateDelay);
         Configuration config = res.getConfiguration();
         mPreviousConfigMcc = config.mcc;
     }
 
+    private static synchronized ExecutorService getWorkspaceDecoder(int threads) {
+        if (sWorkspaceDecoder == null) {
+            sWorkspaceDecoder = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private final AtomicInteger mCount = new AtomicInteger(1);
+
+                        public Thread newThread(Runnable r) {
+                            return new Thread(r,
+                                    "launcher-loader-decode-" + mCount.getAndIncrement());
+                        }
+                    });
+            // The pool is only busy while the workspace loads, don't keep the threads around
+            sWorkspaceDecoder.allowCoreThreadTimeOut(true);
+        }
+        return sWorkspaceDecoder;
+    }
+
     public Bitmap getFallbackIcon() {
-        return Bitmap.createBitmap(mDefaultIcon);
+        // One instance for every item, instead of a copy each. It is never recycled, and it
+        // isn't in the SharedBitmapStore, so no app icon is ever mistaken for it
+        return mDefaultIcon;
     }
 
     public void unbindWorkspaceItems() {
-        sWorker.post(new Runnable() {
+        sWorker.post(LoaderScheduler.LANE_WORKSPACE, new Runnable() {
             @Override
             public void run() {
                 unbindWorkspaceItemsOnMainThread();
@@ -183,13 +293,171 @@ public class LauncherModel extends BroadcastReceiver {
         });
     }
 
-    /** 解绑. Unbinds all the sWorkspaceItems on the main thread, and return a copy of sWorkspaceItems
-     * that is save to reference from the main thread. */
-    private ArrayList<ItemInfo> unbindWorkspaceItemsOnMainThread() {
-        // Ensure that we don't use the same workspace items data structure on the main thread
-        // by making a copy of workspace items first.
-        final ArrayList<ItemInfo> workspaceItems = new ArrayList<ItemInfo>(sWorkspaceItems);
-        final ArrayList<ItemInfo> appWidgets = new ArrayList<ItemInfo>(sAppWidgets);
+    /**
+     * Returns the last published copy of the workspace model. Safe to call from any thread,
+     * the snapshot never changes, but it may be behind the worker thread's model. While the
+     * workspace is loaded screen by screen it only holds the screens bound so far.
+     */
+    static ModelSnapshot getModelSnapshot() {
+        return sModelSnapshot;
+    }
+
+    /**
+     * Publishes the current sWorkspaceItems, sAppWidgets and sFolders and returns the new
+     * snapshot. Only call this on the worker thread.
+     */
+    private static ModelSnapshot publishModelSnapshot() {
+        final ModelSnapshot snapshot =
+                sModelSnapshot.update(sWorkspaceModelComplete, sWorkspaceItems, sAppWidgets,
+                        sFolders);
+        sModelSnapshot = snapshot;
+        return snapshot;
+    }
+
+    /**
+     * Called on the worker thread whenever one of the database helpers changes the model. The
+     * change is published right away, the snapshot on disk is dropped and written again once
+     * the model has settled.
+     */
+    private static void onWorkspaceModelChanged() {
+        publishModelSnapshot();
+        if (sWorkspaceSnapshot != null) {
+            sWorkspaceSnapshot.delete();
+            sWorker.removeCallbacks(sWriteWorkspaceSnapshot);
+            sWorker.postDelayed(LoaderScheduler.LANE_BACKGROUND, sWriteWorkspaceSnapshot,
+                    WORKSPACE_SNAPSHOT_DELAY);
+        }
+    }
+
+    /**
+     * Writes all the pending item updates to the database in a single batch. Only call this
+     * from the worker thread; anything that reads item rows back from the database has to call
+     * it first.
+     */
+    private static void writePendingUpdates() {
+        sWorker.removeCallbacks(sWritePendingUpdates);
+        sPendingUpdatesScheduled = false;
+        if (sPendingUpdates.isEmpty()) {
+            return;
+        }
+
+        final long[] ids = sPendingUpdates.keys();
+        final ArrayList<ContentProviderOperation> ops =
+                new ArrayList<ContentProviderOperation>(ids.length);
+        for (long id : ids) {
+            ops.add(ContentProviderOperation
+                    .newUpdate(LauncherSettings.Favorites.getContentUri(id, false))
+                    .withValues(sPendingUpdates.get(id))
+                    .build());
+        }
+        sPendingUpdates.clear();
+
+        applyBatch(sPendingUpdatesResolver, ops, "item updates");
+    }
+
+    /**
+     * Applies the operations to the favorites in one transaction, with one change
+     * notification for all of them, see LauncherProvider.applyBatch(). Returns false if they
+     * could not be written.
+     */
+    private static boolean applyBatch(ContentResolver cr,
+            ArrayList<ContentProviderOperation> ops, String what) {
+        if (ops.isEmpty()) {
+            return true;
+        }
+        try {
+            cr.applyBatch(LauncherProvider.AUTHORITY, ops);
+            return true;
+        } catch (RemoteException e) {
+            Log.w(TAG, "Could not write " + ops.size() + " " + what, e);
+        } catch (OperationApplicationException e) {
+            Log.w(TAG, "Could not write " + ops.size() + " " + what, e);
+        }
+        return false;
+    }
+
+    /**
+     * Writes the pending item updates without waiting for the delay, e.g. because the launcher
+     * is going to the background.
+     */
+    static void flushPendingUpdates() {
+        sWorker.removeCallbacks(sWritePendingUpdates);
+        sWorker.post(LoaderScheduler.LANE_INTERACTIVE, sWritePendingUpdates);
+    }
+
+    /** Returns the package that an item is indexed under in sItemsByPackage, or null. */
+    private static String getIndexedPackageName(ItemInfo item) {
+        String packageName = null;
+        if (item instanceof ShortcutInfo) {
+            packageName = ((ShortcutInfo) item).getPackageName();
+        } else if (item instanceof LauncherAppWidgetInfo) {
+            ComponentName provider = ((LauncherAppWidgetInfo) item).providerName;
+            if (provider != null) {
+                packageName = provider.getPackageName();
+            }
+        }
+        return TextUtils.isEmpty(packageName) ? null : packageName;
+    }
+
+    private static void addToPackageIndex(ItemInfo item) {
+        final String packageName = getIndexedPackageName(item);
+        if (packageName != null) {
+            ArrayList<ItemInfo> items = sItemsByPackage.get(packageName);
+            if (items == null) {
+                items = new ArrayList<ItemInfo>(1);
+                sItemsByPackage.put(packageName, items);
+            }
+            items.add(item);
+        }
+    }
+
+    private static void removeFromPackageIndex(ItemInfo item) {
+        final String packageName = getIndexedPackageName(item);
+        if (packageName != null) {
+            ArrayList<ItemInfo> items = sItemsByPackage.get(packageName);
+            if (items != null) {
+                // By identity, the same id can't be in the model twice
+                for (int i = items.size() - 1; i >= 0; i--) {
+                    if (items.get(i) == item) {
+                        items.remove(i);
+                    }
+                }
+                if (items.isEmpty()) {
+                    sItemsByPackage.remove(packageName);
+                }
+            }
+        }
+    }
+
+    private static void rebuildPackageIndex() {
+        sItemsByPackage.clear();
+        for (ItemInfo item : sItemsIdMap.values()) {
+            addToPackageIndex(item);
+        }
+    }
+
+    /**
+     * Returns the shortcuts (also the ones in folders) and widgets of the given packages. Only
+     * call this from the worker thread.
+     */
+    private static ArrayList<ItemInfo> getItemsForPackages(Collection<String> packageNames) {
+        final ArrayList<ItemInfo> result = new ArrayList<ItemInfo>();
+        for (String packageName : packageNames) {
+            ArrayList<ItemInfo> items = sItemsByPackage.get(packageName);
+            if (items != null) {
+                result.addAll(items);
+            }
+        }
+        return result;
+    }
+
+    /** 解绑. Unbinds all the sWorkspaceItems on the main thread, and returns the published
+     * snapshot of the model, which is safe to reference from the main thread. */
+    private ModelSnapshot unbindWorkspaceItemsOnMainThread() {
+        // The main thread only ever sees the immutable lists of the snapshot
+        final ModelSnapshot snapshot = publishModelSnapshot();
+        final List<ItemInfo> workspaceItems = snapshot.workspaceItems;
+        final List<LauncherAppWidgetInfo> appWidgets = snapshot.appWidgets;
         mHandler.post(new Runnable() {
             @Override
             public void run() {
@@ -202,7 +470,7 @@ public class LauncherModel extends BroadcastReceiver {
             }
         });
 
-        return workspaceItems;
+        return snapshot;
     }
 
     /**
@@ -223,12 +491,24 @@ public class LauncherModel extends BroadcastReceiver {
     static void updateItemInDatabaseHelper(Context context, final ContentValues values,
             final ItemInfo item, final String callingFunction) {
         final long itemId = item.id;
-        final Uri uri = LauncherSettings.Favorites.getContentUri(itemId, false);
         final ContentResolver cr = context.getContentResolver();
 
         Runnable r = new Runnable() {
             public void run() {
-                cr.update(uri, values, null, null);
+                // Moving items around touches many rows at once, so hold the update back and
+                // write it together with the others, see writePendingUpdates()
+                ContentValues pending = sPendingUpdates.get(itemId);
+                if (pending == null) {
+                    sPendingUpdates.put(itemId, new ContentValues(values));
+                } else {
+                    pending.putAll(values);
+                }
+                sPendingUpdatesResolver = cr;
+                if (!sPendingUpdatesScheduled) {
+                    sPendingUpdatesScheduled = true;
+                    sWorker.postDelayed(LoaderScheduler.LANE_INTERACTIVE, sWritePendingUpdates,
+                            sPendingUpdatesDelay);
+                }
 
                 ItemInfo modelItem = sItemsIdMap.get(itemId);
                 if (item != modelItem) {
@@ -251,13 +531,14 @@ public class LauncherModel extends BroadcastReceiver {
                 } else {
                     sWorkspaceItems.remove(modelItem);
                 }
+                onWorkspaceModelChanged();
             }
         };
 
-        if (sWorkerThread.getThreadId() == Process.myTid()) {
+        if (sWorker.isCurrentThread()) {
             r.run();
         } else {
-            sWorker.post(r);
+            sWorker.post(LoaderScheduler.LANE_INTERACTIVE, r);
         }
     }
 
@@ -334,6 +615,25 @@ public class LauncherModel extends BroadcastReceiver {
      * we identify a shortcut by its title and intent.
      */
     static boolean shortcutExists(Context context, String title, Intent intent) {
+        // Moves can still be waiting in sPendingUpdates, the loaded model already has them
+        final ModelSnapshot snapshot = sModelSnapshot;
+        if (snapshot.complete) {
+            final String uri = intent.toUri(0);
+            for (ItemInfo item : snapshot.workspaceItems) {
+                if (item instanceof ShortcutInfo && isShortcut((ShortcutInfo) item, title, uri)) {
+                    return true;
+                }
+            }
+            for (FolderInfo folder : snapshot.folders.values()) {
+                for (ShortcutInfo item : folder.contents) {
+                    if (isShortcut(item, title, uri)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
         final ContentResolver cr = context.getContentResolver();
         Cursor c = cr.query(LauncherSettings.Favorites.CONTENT_URI,
             new String[] { "title", "intent" }, "title=? and intent=?",
@@ -347,6 +647,11 @@ public class LauncherModel extends BroadcastReceiver {
         return result;
     }
 
+    private static boolean isShortcut(ShortcutInfo item, String title, String uri) {
+        return item.intent != null && TextUtils.equals(item.title, title)
+                && uri.equals(item.intent.toUri(0));
+    }
+
     /**
      * 从数据库中查询出所有的ItemInfo,但ItemInfo.id为空，并没有设值。
      * Returns an ItemInfo array containing all the items in the LauncherModel.
@@ -354,6 +659,23 @@ public class LauncherModel extends BroadcastReceiver {
      */
     static ArrayList<ItemInfo> getItemsInLocalCoordinates(Context context) {
         ArrayList<ItemInfo> items = new ArrayList<ItemInfo>();
+        // Moves can still be waiting in sPendingUpdates, the loaded model already has them
+        final ModelSnapshot snapshot = sModelSnapshot;
+        if (snapshot.complete) {
+            for (ItemInfo item : snapshot.workspaceItems) {
+                items.add(copyCoordinates(item));
+            }
+            for (ItemInfo item : snapshot.appWidgets) {
+                items.add(copyCoordinates(item));
+            }
+            for (FolderInfo folder : snapshot.folders.values()) {
+                for (ItemInfo item : folder.contents) {
+                    items.add(copyCoordinates(item));
+                }
+            }
+            return items;
+        }
+
         final ContentResolver cr = context.getContentResolver();
         Cursor c = cr.query(LauncherSettings.Favorites.CONTENT_URI, new String[] {
                 LauncherSettings.Favorites.ITEM_TYPE, LauncherSettings.Favorites.CONTAINER,
@@ -390,10 +712,22 @@ public class LauncherModel extends BroadcastReceiver {
         return items;
     }
 
+    private static ItemInfo copyCoordinates(ItemInfo info) {
+        final ItemInfo item = new ItemInfo();
+        item.cellX = info.cellX;
+        item.cellY = info.cellY;
+        item.spanX = info.spanX;
+        item.spanY = info.spanY;
+        item.container = info.container;
+        item.itemType = info.itemType;
+        item.screen = info.screen;
+        return item;
+    }
+
     /**
      * Find a folder in the db, creating the FolderInfo if necessary, and adding it to folderList.
      */
-    FolderInfo getFolderById(Context context, HashMap<Long,FolderInfo> folderList, long id) {
+    FolderInfo getFolderById(Context context, LongHashMap<FolderInfo> folderList, long id) {
         final ContentResolver cr = context.getContentResolver();
         Cursor c = cr.query(LauncherSettings.Favorites.CONTENT_URI, null,
                 "_id=? and (itemType=? or itemType=?)",
@@ -470,6 +804,7 @@ public class LauncherModel extends BroadcastReceiver {
                         "addItemToDatabase already exists." + item.toString());
                 }
                 sItemsIdMap.put(item.id, item);
+                addToPackageIndex(item);
                 switch (item.itemType) {
                     case LauncherSettings.Favorites.ITEM_TYPE_FOLDER:
                         sFolders.put(item.id, (FolderInfo) item);
@@ -485,13 +820,14 @@ public class LauncherModel extends BroadcastReceiver {
                         sAppWidgets.add((LauncherAppWidgetInfo) item);
                         break;
                 }
+                onWorkspaceModelChanged();
             }
         };
 
-        if (sWorkerThread.getThreadId() == Process.myTid()) {
+        if (sWorker.isCurrentThread()) {
             r.run();
         } else {
-            sWorker.post(r);
+            sWorker.post(LoaderScheduler.LANE_INTERACTIVE, r);
         }
     }
 
@@ -531,31 +867,78 @@ public class LauncherModel extends BroadcastReceiver {
         final Uri uriToDelete = LauncherSettings.Favorites.getContentUri(item.id, false);
         Runnable r = new Runnable() {
             public void run() {
+                sPendingUpdates.remove(item.id);
                 cr.delete(uriToDelete, null, null);
-                switch (item.itemType) {
-                    case LauncherSettings.Favorites.ITEM_TYPE_FOLDER:
-                        sFolders.remove(item.id);
-                        sWorkspaceItems.remove(item);
-                        break;
-                    case LauncherSettings.Favorites.ITEM_TYPE_APPLICATION:
-                    case LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT:
-                        sWorkspaceItems.remove(item);
-                        break;
-                    case LauncherSettings.Favorites.ITEM_TYPE_APPWIDGET:
-                        sAppWidgets.remove((LauncherAppWidgetInfo) item);
-                        break;
+                removeItemFromModel(item);
+                onWorkspaceModelChanged();
+            }
+        };
+        if (sWorker.isCurrentThread()) {
+            r.run();
+        } else {
+            sWorker.post(LoaderScheduler.LANE_INTERACTIVE, r);
+        }
+    }
+
+    /**
+     * Removes the specified items from the database in one batch, e.g. all the items of a
+     * package that went away.
+     */
+    static void deleteItemsFromDatabase(Context context, Collection<? extends ItemInfo> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+        final ContentResolver cr = context.getContentResolver();
+        final ArrayList<ItemInfo> itemsToDelete = new ArrayList<ItemInfo>(items);
+        Runnable r = new Runnable() {
+            public void run() {
+                final ArrayList<ContentProviderOperation> ops =
+                        new ArrayList<ContentProviderOperation>(itemsToDelete.size());
+                for (ItemInfo item : itemsToDelete) {
+                    sPendingUpdates.remove(item.id);
+                    ops.add(ContentProviderOperation
+                            .newDelete(LauncherSettings.Favorites.getContentUri(item.id, false))
+                            .build());
+                }
+                applyBatch(cr, ops, "item deletions");
+                for (ItemInfo item : itemsToDelete) {
+                    removeItemFromModel(item);
                 }
-                sItemsIdMap.remove(item.id);
-                sDbIconCache.remove(item);
+                onWorkspaceModelChanged();
             }
         };
-        if (sWorkerThread.getThreadId() == Process.myTid()) {
+        if (sWorker.isCurrentThread()) {
             r.run();
         } else {
-            sWorker.post(r);
+            sWorker.post(LoaderScheduler.LANE_INTERACTIVE, r);
         }
     }
 
+    /**
+     * Drops a deleted item from sWorkspaceItems/sFolders/sAppWidgets/sItemsIdMap. Only call
+     * this on the worker thread.
+     */
+    private static void removeItemFromModel(ItemInfo item) {
+        switch (item.itemType) {
+            case LauncherSettings.Favorites.ITEM_TYPE_FOLDER:
+                sFolders.remove(item.id);
+                sWorkspaceItems.remove(item);
+                break;
+            case LauncherSettings.Favorites.ITEM_TYPE_APPLICATION:
+            case LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT:
+                sWorkspaceItems.remove(item);
+                break;
+            case LauncherSettings.Favorites.ITEM_TYPE_APPWIDGET:
+                sAppWidgets.remove((LauncherAppWidgetInfo) item);
+                break;
+        }
+        ItemInfo modelItem = sItemsIdMap.remove(item.id);
+        if (modelItem != null) {
+            removeFromPackageIndex(modelItem);
+        }
+        sDbIconCache.remove(item);
+    }
+
     /**
      * Remove the contents of the specified folder from the database
      */
@@ -564,24 +947,42 @@ public class LauncherModel extends BroadcastReceiver {
 
         Runnable r = new Runnable() {
             public void run() {
-                cr.delete(LauncherSettings.Favorites.getContentUri(info.id, false), null, null);
+                // A shortcut dragged out of the folder may still have its move pending, write
+                // it before the selection below deletes the row along with the folder's
+                writePendingUpdates();
+
+                // The folder and its contents go in one transaction
+                final ArrayList<ContentProviderOperation> ops =
+                        new ArrayList<ContentProviderOperation>(2);
+                ops.add(ContentProviderOperation
+                        .newDelete(LauncherSettings.Favorites.getContentUri(info.id, false))
+                        .build());
+                ops.add(ContentProviderOperation
+                        .newDelete(LauncherSettings.Favorites.CONTENT_URI_NO_NOTIFICATION)
+                        .withSelection(LauncherSettings.Favorites.CONTAINER + "=" + info.id,
+                                null)
+                        .build());
+                applyBatch(cr, ops, "folder deletions");
+
                 sItemsIdMap.remove(info.id);
                 sFolders.remove(info.id);
                 sDbIconCache.remove(info);
                 sWorkspaceItems.remove(info);
 
-                cr.delete(LauncherSettings.Favorites.CONTENT_URI_NO_NOTIFICATION,
-                        LauncherSettings.Favorites.CONTAINER + "=" + info.id, null);
                 for (ItemInfo childInfo : info.contents) {
-                    sItemsIdMap.remove(childInfo.id);
+                    ItemInfo modelItem = sItemsIdMap.remove(childInfo.id);
+                    if (modelItem != null) {
+                        removeFromPackageIndex(modelItem);
+                    }
                     sDbIconCache.remove(childInfo);
                 }
+                onWorkspaceModelChanged();
             }
         };
-        if (sWorkerThread.getThreadId() == Process.myTid()) {
+        if (sWorker.isCurrentThread()) {
             r.run();
         } else {
-            sWorker.post(r);
+            sWorker.post(LoaderScheduler.LANE_INTERACTIVE, r);
         }
     }
 
@@ -634,21 +1035,21 @@ public class LauncherModel extends BroadcastReceiver {
             }
 
             if (op != PackageUpdatedTask.OP_NONE) {
-                enqueuePackageUpdated(new PackageUpdatedTask(op, new String[] { packageName }));
+                enqueuePackageUpdated(op, new String[] { packageName });
             }
 
         } else if (Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE.equals(action)) {
             // First, schedule to add these apps back in.
             String[] packages = intent.getStringArrayExtra(Intent.EXTRA_CHANGED_PACKAGE_LIST);
-            enqueuePackageUpdated(new PackageUpdatedTask(PackageUpdatedTask.OP_ADD, packages));
+            enqueuePackageUpdated(PackageUpdatedTask.OP_ADD, packages);
             // Then, rebind everything.
             startLoaderFromBackground();
         } else if (Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE.equals(action)) {
             String[] packages = intent.getStringArrayExtra(Intent.EXTRA_CHANGED_PACKAGE_LIST);
-            enqueuePackageUpdated(new PackageUpdatedTask(
-                        PackageUpdatedTask.OP_UNAVAILABLE, packages));
+            enqueuePackageUpdated(PackageUpdatedTask.OP_UNAVAILABLE, packages);
         } else if (Intent.ACTION_LOCALE_CHANGED.equals(action)) {
             // If we have changed locale we need to clear out the labels in all apps/workspace.
+            mIconCache.getLabelStore().clear();
             forceReload();
         } else if (Intent.ACTION_CONFIGURATION_CHANGED.equals(action)) {
              // Check if configuration change was an mcc/mnc change which would affect app resources
@@ -658,6 +1059,7 @@ public class LauncherModel extends BroadcastReceiver {
              if (mPreviousConfigMcc != currentConfig.mcc) {
                    Log.d(TAG, "Reload apps on config change. curr_mcc:"
                        + currentConfig.mcc + " prevmcc:" + mPreviousConfigMcc);
+                   mIconCache.getLabelStore().clear();
                    forceReload();
              }
              // Update previousConfig
@@ -744,8 +1146,8 @@ public class LauncherModel extends BroadcastReceiver {
                 // also, don't downgrade isLaunching if we're already running
                 isLaunching = isLaunching || stopLoaderLocked();
                 mLoaderTask = new LoaderTask(mApp, isLaunching);
-                sWorkerThread.setPriority(Thread.NORM_PRIORITY);
-                sWorker.post(mLoaderTask);
+                sWorker.getThread().setPriority(Thread.NORM_PRIORITY);
+                sWorker.post(LoaderScheduler.LANE_WORKSPACE, mLoaderTask);
             }
         }
     }
@@ -771,6 +1173,209 @@ public class LauncherModel extends BroadcastReceiver {
         return false;
     }
 
+    /**
+     * The raw column values of one favorites row. The loader copies rows out of the cursor
+     * so that decoding them (see decodeRow) can happen off the loader thread;
+     * the decoded item and what to do with it are stored back into the row.
+     */
+    static class WorkspaceRow {
+        static final int RESULT_OK = 0;
+        static final int RESULT_IGNORE = 1; // bad row, leave it alone
+        static final int RESULT_DELETE = 2; // shortcut that can't be resolved anymore
+        static final int RESULT_DELETE_WIDGET = 3; // widget whose provider is gone
+
+        // The columns the loader reads. Saved icons are not among them, see getSavedIcon()
+        static final String[] PROJECTION = {
+            LauncherSettings.Favorites._ID,
+            LauncherSettings.Favorites.INTENT,
+            LauncherSettings.Favorites.TITLE,
+            LauncherSettings.Favorites.ICON_TYPE,
+            LauncherSettings.Favorites.ICON_HASH,
+            LauncherSettings.Favorites.ICON_PACKAGE,
+            LauncherSettings.Favorites.ICON_RESOURCE,
+            LauncherSettings.Favorites.CONTAINER,
+            LauncherSettings.Favorites.ITEM_TYPE,
+            LauncherSettings.Favorites.APPWIDGET_ID,
+            LauncherSettings.Favorites.SCREEN,
+            LauncherSettings.Favorites.CELLX,
+            LauncherSettings.Favorites.CELLY,
+            LauncherSettings.Favorites.SPANX,
+            LauncherSettings.Favorites.SPANY,
+        };
+
+        static class Columns {
+            final int id;
+            final int intent;
+            final int title;
+            final int iconType;
+            final int iconHash;
+            final int iconPackage;
+            final int iconResource;
+            final int container;
+            final int itemType;
+            final int appWidgetId;
+            final int screen;
+            final int cellX;
+            final int cellY;
+            final int spanX;
+            final int spanY;
+
+            Columns(Cursor c) {
+                id = c.getColumnIndexOrThrow(LauncherSettings.Favorites._ID);
+                intent = c.getColumnIndexOrThrow(LauncherSettings.Favorites.INTENT);
+                title = c.getColumnIndexOrThrow(LauncherSettings.Favorites.TITLE);
+                iconType = c.getColumnIndexOrThrow(LauncherSettings.Favorites.ICON_TYPE);
+                iconHash = c.getColumnIndexOrThrow(LauncherSettings.Favorites.ICON_HASH);
+                iconPackage = c.getColumnIndexOrThrow(LauncherSettings.Favorites.ICON_PACKAGE);
+                iconResource = c.getColumnIndexOrThrow(LauncherSettings.Favorites.ICON_RESOURCE);
+                container = c.getColumnIndexOrThrow(LauncherSettings.Favorites.CONTAINER);
+                itemType = c.getColumnIndexOrThrow(LauncherSettings.Favorites.ITEM_TYPE);
+                appWidgetId = c.getColumnIndexOrThrow(LauncherSettings.Favorites.APPWIDGET_ID);
+                screen = c.getColumnIndexOrThrow(LauncherSettings.Favorites.SCREEN);
+                cellX = c.getColumnIndexOrThrow(LauncherSettings.Favorites.CELLX);
+                cellY = c.getColumnIndexOrThrow(LauncherSettings.Favorites.CELLY);
+                spanX = c.getColumnIndexOrThrow(LauncherSettings.Favorites.SPANX);
+                spanY = c.getColumnIndexOrThrow(LauncherSettings.Favorites.SPANY);
+            }
+        }
+
+        final long id;
+        final int itemType;
+        final String intent;
+        final String title;
+        final int iconType;
+        final long iconHash;
+        final String iconPackage;
+        final String iconResource;
+        final int container;
+        final int appWidgetId;
+        final int screen;
+        final int cellX;
+        final int cellY;
+        final int spanX;
+        final int spanY;
+
+        int result = RESULT_IGNORE;
+        ItemInfo item;
+
+        WorkspaceRow(Cursor c, Columns columns) {
+            id = c.getLong(columns.id);
+            itemType = c.getInt(columns.itemType);
+            intent = c.getString(columns.intent);
+            title = c.getString(columns.title);
+            iconType = c.getInt(columns.iconType);
+            iconHash = c.getLong(columns.iconHash);
+            iconPackage = c.getString(columns.iconPackage);
+            iconResource = c.getString(columns.iconResource);
+            container = c.getInt(columns.container);
+            appWidgetId = c.getInt(columns.appWidgetId);
+            screen = c.getInt(columns.screen);
+            cellX = c.getInt(columns.cellX);
+            cellY = c.getInt(columns.cellY);
+            spanX = c.getInt(columns.spanX);
+            spanY = c.getInt(columns.spanY);
+        }
+    }
+
+    /**
+     * Does the expensive part of loading a favorites row: parsing the intent, resolving it
+     * through the PackageManager and building the icon. This may run on any thread, so it
+     * must not touch the model's static lists; the result is left in the row for
+     * LoaderTask.mergeRow or FavoriteChangedTask.
+     */
+    private void decodeRow(WorkspaceRow row, PackageManager manager,
+            AppWidgetManager widgets, boolean isSafeMode, Map<Object, CharSequence> labelCache) {
+        final Context context = mApp;
+
+        switch (row.itemType) {
+        case LauncherSettings.Favorites.ITEM_TYPE_APPLICATION:
+        case LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT:
+            final Intent intent;
+            try {
+                intent = Intent.parseUri(row.intent, 0);
+            } catch (URISyntaxException e) {
+                row.result = WorkspaceRow.RESULT_IGNORE;
+                return;
+            }
+
+            final ShortcutInfo info;
+            if (row.itemType == LauncherSettings.Favorites.ITEM_TYPE_APPLICATION) {
+                info = getShortcutInfo(manager, intent, context, row, labelCache);
+            } else {
+                info = getShortcutInfo(row, context);
+
+                // App shortcuts that used to be automatically added to Launcher
+                // didn't always have the correct intent flags set, so do that here
+                if (intent.getAction() != null &&
+                        intent.getCategories() != null &&
+                        intent.getAction().equals(Intent.ACTION_MAIN) &&
+                        intent.getCategories().contains(Intent.CATEGORY_LAUNCHER)) {
+                    intent.addFlags(
+                        Intent.FLAG_ACTIVITY_NEW_TASK |
+                        Intent.FLAG_ACTIVITY_RESET_TASK_IF_NEEDED);
+                }
+            }
+
+            if (info != null) {
+                info.intent = intent;
+                info.id = row.id;
+                info.container = row.container;
+                info.screen = row.screen;
+                info.cellX = row.cellX;
+                info.cellY = row.cellY;
+                row.item = info;
+                row.result = WorkspaceRow.RESULT_OK;
+            } else {
+                // Failed to load the shortcut, probably because the
+                // activity manager couldn't resolve it (maybe the app
+                // was uninstalled), or the db row was somehow screwed up.
+                // Delete it.
+                row.result = WorkspaceRow.RESULT_DELETE;
+            }
+            break;
+
+        case LauncherSettings.Favorites.ITEM_TYPE_FOLDER:
+            // Folders are only placeholders at this point, mergeRow() builds them
+            row.result = WorkspaceRow.RESULT_OK;
+            break;
+
+        case LauncherSettings.Favorites.ITEM_TYPE_APPWIDGET:
+            // Read all Launcher-specific widget details
+            final AppWidgetProviderInfo provider =
+                    widgets.getAppWidgetInfo(row.appWidgetId);
+
+            if (!isSafeMode && (provider == null || provider.provider == null ||
+                    provider.provider.getPackageName() == null)) {
+                row.result = WorkspaceRow.RESULT_DELETE_WIDGET;
+            } else if (row.container != LauncherSettings.Favorites.CONTAINER_DESKTOP &&
+                    row.container != LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
+                Log.e(TAG, "Widget found where container "
+                    + "!= CONTAINER_DESKTOP nor CONTAINER_HOTSEAT - ignoring!");
+                row.result = WorkspaceRow.RESULT_IGNORE;
+            } else {
+                final LauncherAppWidgetInfo appWidgetInfo =
+                        new LauncherAppWidgetInfo(row.appWidgetId, provider.provider);
+                appWidgetInfo.id = row.id;
+                appWidgetInfo.screen = row.screen;
+                appWidgetInfo.cellX = row.cellX;
+                appWidgetInfo.cellY = row.cellY;
+                appWidgetInfo.spanX = row.spanX;
+                appWidgetInfo.spanY = row.spanY;
+                int[] minSpan = Launcher.getMinSpanForWidget(context, provider);
+                appWidgetInfo.minSpanX = minSpan[0];
+                appWidgetInfo.minSpanY = minSpan[1];
+                appWidgetInfo.container = row.container;
+                row.item = appWidgetInfo;
+                row.result = WorkspaceRow.RESULT_OK;
+            }
+            break;
+
+        default:
+            row.result = WorkspaceRow.RESULT_IGNORE;
+            break;
+        }
+    }
+
     /**
      * Runnable for the thread that loads the contents of the launcher:
      *   - workspace icons
@@ -784,12 +1389,15 @@ public class LauncherModel extends BroadcastReceiver {
         private boolean mIsLoadingAndBindingWorkspace;
         private boolean mStopped;
         private boolean mLoadAndBindStepFinished;
-        private HashMap<Object, CharSequence> mLabelCache;
+        private boolean mBindPending; // the UI hasn't gone idle since the last all apps batch
+        private boolean mVerifyingSnapshot;
+        private Map<Object, CharSequence> mLabelCache;
 
         LoaderTask(Context context, boolean isLaunching) {
             mContext = context;
             mIsLaunching = isLaunching;
-            mLabelCache = new HashMap<Object, CharSequence>();
+            // Shared with the workspace decoders, so it has to be safe for concurrent use
+            mLabelCache = new ConcurrentHashMap<Object, CharSequence>();
         }
 
         boolean isLaunching() {
@@ -809,19 +1417,197 @@ public class LauncherModel extends BroadcastReceiver {
             }
 
             if (!mWorkspaceLoaded) {
-                loadWorkspace();
+                // On a cold start bind the snapshot of the last model right away, and check it
+                // against the database and the package manager below.
+                final WorkspaceSnapshot.Model snapshot =
+                        sWorkspaceSnapshotUsed ? null : loadWorkspaceFromSnapshot();
+                if (snapshot != null) {
+                    mVerifyingSnapshot = true;
+                    bindWorkspace();
+                }
+
+                // Without a snapshot, show the current screen before the others are loaded
+                final boolean byScreen = snapshot == null && mLoadCurrentScreenFirst;
+                if (byScreen) {
+                    loadAndBindWorkspaceByScreen();
+                } else {
+                    loadWorkspace();
+                }
                 synchronized (LoaderTask.this) {
                     if (mStopped) {
                         return;
                     }
                     mWorkspaceLoaded = true;
                 }
+
+                if (snapshot != null) {
+                    final boolean changed = reconcileWithSnapshot(snapshot);
+                    // Posted so that it runs after the cleanup of the first bind
+                    mHandler.post(new Runnable() {
+                        public void run() {
+                            mVerifyingSnapshot = false;
+                            mIsLoadingAndBindingWorkspace = false;
+                        }
+                    });
+                    if (changed) {
+                        sWorker.removeCallbacks(sWriteWorkspaceSnapshot);
+                        sWorker.post(LoaderScheduler.LANE_BACKGROUND, sWriteWorkspaceSnapshot);
+                    }
+                    // What is bound is up to date now, there is nothing left to do
+                    return;
+                }
+                // Save the new model once we are done loading
+                sWorker.removeCallbacks(sWriteWorkspaceSnapshot);
+                sWorker.post(LoaderScheduler.LANE_BACKGROUND, sWriteWorkspaceSnapshot);
+                if (byScreen) {
+                    // Already bound while loading
+                    return;
+                }
             }
 
             // Bind the workspace
             bindWorkspace();
         }
 
+        /**
+         * Puts the items of the on-disk snapshot into the model, if there is a usable one.
+         */
+        private WorkspaceSnapshot.Model loadWorkspaceFromSnapshot() {
+            final long t = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
+            sWorkspaceSnapshotUsed = true;
+
+            final WorkspaceSnapshot.Model snapshot =
+                    sWorkspaceSnapshot.read(mCellCountX, mCellCountY, mDefaultIcon);
+            if (snapshot == null) {
+                return null;
+            }
+            sDbIconCache.clear();
+            setWorkspaceModel(snapshot);
+
+            if (DEBUG_LOADERS) {
+                Log.d(TAG, "loaded workspace snapshot of " + snapshot.itemsIdMap.size()
+                        + " items in " + (SystemClock.uptimeMillis() - t) + "ms");
+            }
+            return snapshot;
+        }
+
+        /**
+         * Compares the model that loadWorkspace() just built with the snapshot that is already
+         * bound, item by item. Items that didn't change go back into the model as the
+         * snapshot's objects (the views are bound to those), the others are unbound and bound
+         * again with bindItemsRemoved()/bindItemsAdded(). A folder is only kept if none of its
+         * shortcuts changed either, otherwise it is bound again as a whole. Returns whether
+         * anything changed.
+         */
+        private boolean reconcileWithSnapshot(WorkspaceSnapshot.Model snapshot) {
+            final LongHashMap<FolderInfo> keptFolders = new LongHashMap<FolderInfo>();
+            for (FolderInfo folder : sFolders.values()) {
+                final ItemInfo old = snapshot.itemsIdMap.get(folder.id);
+                if (sItemsIdMap.get(folder.id) != folder
+                        || !sWorkspaceSnapshot.sameItem(old, folder)) {
+                    continue;
+                }
+                boolean same = true;
+                for (ShortcutInfo item : folder.contents) {
+                    if (!sWorkspaceSnapshot.sameItem(snapshot.itemsIdMap.get(item.id), item)) {
+                        same = false;
+                        break;
+                    }
+                }
+                if (same) {
+                    keptFolders.put(folder.id, (FolderInfo) old);
+                }
+            }
+
+            // The snapshot's object for each item that didn't change, the loaded one otherwise
+            final WorkspaceSnapshot.Model model = new WorkspaceSnapshot.Model();
+            final ArrayList<ItemInfo> added = new ArrayList<ItemInfo>();
+            for (ItemInfo item : sItemsIdMap.values()) {
+                final ItemInfo old = snapshot.itemsIdMap.get(item.id);
+                final boolean kept;
+                if (item instanceof FolderInfo) {
+                    kept = keptFolders.get(item.id) != null;
+                } else if (isInFolder(item)) {
+                    // Shortcuts in folders come and go with their folder
+                    kept = keptFolders.get(item.container) != null;
+                } else {
+                    kept = sWorkspaceSnapshot.sameItem(old, item);
+                }
+                model.itemsIdMap.put(item.id, kept ? old : item);
+                if (!kept && !isInFolder(item)) {
+                    added.add(item);
+                }
+            }
+            final ArrayList<ItemInfo> removed = new ArrayList<ItemInfo>();
+            for (ItemInfo old : snapshot.itemsIdMap.values()) {
+                if (model.itemsIdMap.get(old.id) != old && !isInFolder(old)) {
+                    removed.add(old);
+                }
+            }
+
+            for (ItemInfo item : sWorkspaceItems) {
+                model.workspaceItems.add(model.itemsIdMap.get(item.id));
+            }
+            for (LauncherAppWidgetInfo widget : sAppWidgets) {
+                model.appWidgets.add((LauncherAppWidgetInfo) model.itemsIdMap.get(widget.id));
+            }
+            for (FolderInfo folder : sFolders.values()) {
+                final FolderInfo old = keptFolders.get(folder.id);
+                model.folders.put(folder.id, old != null ? old : folder);
+            }
+
+            // sDbIconCache is keyed by the items we just loaded, move it over to the kept ones
+            final HashMap<Object, Long> dbIcons = new HashMap<Object, Long>(sDbIconCache);
+            sDbIconCache.clear();
+            for (Map.Entry<Object, Long> entry : dbIcons.entrySet()) {
+                final ItemInfo item = (ItemInfo) entry.getKey();
+                sDbIconCache.put(model.itemsIdMap.get(item.id), entry.getValue());
+            }
+            setWorkspaceModel(model);
+
+            if (removed.isEmpty() && added.isEmpty()) {
+                return false;
+            }
+            if (DEBUG_LOADERS) {
+                Log.d(TAG, "workspace snapshot is stale, rebinding " + removed.size()
+                        + " removed and " + added.size() + " added items");
+            }
+            final Callbacks oldCallbacks = mCallbacks.get();
+            mHandler.post(new Runnable() {
+                public void run() {
+                    final Callbacks callbacks = tryGetCallbacks(oldCallbacks);
+                    if (callbacks != null) {
+                        if (!removed.isEmpty()) {
+                            callbacks.bindItemsRemoved(removed);
+                        }
+                        if (!added.isEmpty()) {
+                            callbacks.bindItemsAdded(added);
+                        }
+                    }
+                }
+            });
+            return true;
+        }
+
+        private boolean isInFolder(ItemInfo item) {
+            return item.container != LauncherSettings.Favorites.CONTAINER_DESKTOP
+                    && item.container != LauncherSettings.Favorites.CONTAINER_HOTSEAT;
+        }
+
+        private void setWorkspaceModel(WorkspaceSnapshot.Model model) {
+            sWorkspaceItems.clear();
+            sWorkspaceItems.addAll(model.workspaceItems);
+            sAppWidgets.clear();
+            sAppWidgets.addAll(model.appWidgets);
+            sFolders.clear();
+            sFolders.putAll(model.folders);
+            sItemsIdMap.clear();
+            sItemsIdMap.putAll(model.itemsIdMap);
+            rebuildPackageIndex();
+            sWorkspaceModelComplete = true;
+            publishModelSnapshot();
+        }
+
         private void waitForIdle() {
             // Wait until the either we're stopped or the other threads are done.
             // This way we don't start loading all apps until the workspace has settled
@@ -910,10 +1696,13 @@ public class LauncherModel extends BroadcastReceiver {
             }
 
 
+            updatePinnedIcons();
+            saveStores();
+
             // Update the saved icons if necessary
             if (DEBUG_LOADERS) Log.d(TAG, "Comparing loaded icons to database icons");
-            for (Object key : sDbIconCache.keySet()) {
-                updateSavedIcon(mContext, (ShortcutInfo) key, sDbIconCache.get(key));
+            for (Map.Entry<Object, Long> entry : sDbIconCache.entrySet()) {
+                updateSavedIcon(mContext, (ShortcutInfo) entry.getKey(), entry.getValue());
             }
             sDbIconCache.clear();
 
@@ -967,9 +1756,13 @@ public class LauncherModel extends BroadcastReceiver {
             }
         }
 
-        // check & update map of what's occupied; used to discard overlapping/invalid items
-        private boolean checkItemPlacement(ItemInfo occupied[][][], ItemInfo item) {
-            int containerIndex = item.screen;
+        /**
+         * Checks and updates the map of what's occupied; used to discard overlapping/invalid
+         * items. Items that are exact duplicates of one that was loaded before are added to
+         * itemsToRemove, other overlapping items are only skipped.
+         */
+        private boolean checkItemPlacement(CellOccupancy occupied, ItemInfo item,
+                ArrayList<Long> itemsToRemove) {
             if (item.container == LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
                 // Return early if we detect that an item is under the hotseat button
                 if (mCallbacks == null || mCallbacks.get().isAllAppsButtonRank(item.screen)) {
@@ -978,297 +1771,174 @@ public class LauncherModel extends BroadcastReceiver {
 
                 // We use the last index to refer to the hotseat and the screen as the rank, so
                 // test and update the occupied state accordingly
-                if (occupied[Launcher.SCREEN_COUNT][item.screen][0] != null) {
+                if (!occupied.occupy(Launcher.SCREEN_COUNT, item.screen, 0, 1, 1, item)) {
+                    final ItemInfo other =
+                            occupied.findOverlapping(Launcher.SCREEN_COUNT, item.screen, 0, 1, 1);
                     Log.e(TAG, "Error loading shortcut into hotseat " + item
                         + " into position (" + item.screen + ":" + item.cellX + "," + item.cellY
-                        + ") occupied by " + occupied[Launcher.SCREEN_COUNT][item.screen][0]);
+                        + ") occupied by " + other);
+                    onPlacementConflict(item, other, itemsToRemove);
                     return false;
-                } else {
-                    occupied[Launcher.SCREEN_COUNT][item.screen][0] = item;
-                    return true;
                 }
+                return true;
             } else if (item.container != LauncherSettings.Favorites.CONTAINER_DESKTOP) {
                 // Skip further checking if it is not the hotseat or workspace container
                 return true;
             }
 
             // Check if any workspace icons overlap with each other
-            for (int x = item.cellX; x < (item.cellX+item.spanX); x++) {
-                for (int y = item.cellY; y < (item.cellY+item.spanY); y++) {
-                    if (occupied[containerIndex][x][y] != null) {
-                        Log.e(TAG, "Error loading shortcut " + item
-                            + " into cell (" + containerIndex + "-" + item.screen + ":"
-                            + x + "," + y
-                            + ") occupied by "
-                            + occupied[containerIndex][x][y]);
-                        return false;
-                    }
-                }
+            if (!occupied.occupy(item.screen, item.cellX, item.cellY, item.spanX, item.spanY,
+                    item)) {
+                final ItemInfo other = occupied.findOverlapping(item.screen, item.cellX,
+                        item.cellY, item.spanX, item.spanY);
+                Log.e(TAG, "Error loading shortcut " + item
+                    + " into cell (" + item.screen + ":" + item.cellX + "," + item.cellY
+                    + ") occupied by " + other);
+                onPlacementConflict(item, other, itemsToRemove);
+                return false;
             }
-            for (int x = item.cellX; x < (item.cellX+item.spanX); x++) {
-                for (int y = item.cellY; y < (item.cellY+item.spanY); y++) {
-                    occupied[containerIndex][x][y] = item;
-                }
+            return true;
+        }
+
+        private void onPlacementConflict(ItemInfo item, ItemInfo other,
+                ArrayList<Long> itemsToRemove) {
+            // Anything else may be the user's, or be fixed by a later layout, so it stays in
+            // the database and is skipped again on the next load
+            if (isDuplicate(item, other)) {
+                Launcher.sDumpLogs.add("Removing item " + item.id + " that duplicates item "
+                        + other.id);
+                itemsToRemove.add(item.id);
             }
+        }
 
-            return true;
+        /**
+         * Returns whether item is the same shortcut or widget as other, in the same place.
+         * Folders never are, deleting one would leave its contents behind.
+         */
+        private boolean isDuplicate(ItemInfo item, ItemInfo other) {
+            if (other == null || item.itemType != other.itemType
+                    || item.container != other.container || item.screen != other.screen
+                    || item.cellX != other.cellX || item.cellY != other.cellY
+                    || item.spanX != other.spanX || item.spanY != other.spanY) {
+                return false;
+            }
+            if (item instanceof ShortcutInfo && other instanceof ShortcutInfo) {
+                final ShortcutInfo a = (ShortcutInfo) item;
+                final ShortcutInfo b = (ShortcutInfo) other;
+                return a.intent != null && b.intent != null
+                        && a.intent.toUri(0).equals(b.intent.toUri(0))
+                        && TextUtils.equals(a.title, b.title);
+            }
+            if (item instanceof LauncherAppWidgetInfo && other instanceof LauncherAppWidgetInfo) {
+                // The same widget id, so the row that stays still owns it
+                return ((LauncherAppWidgetInfo) item).appWidgetId
+                        == ((LauncherAppWidgetInfo) other).appWidgetId;
+            }
+            return false;
         }
 
         private void loadWorkspace() {
             final long t = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
 
-            final Context context = mContext;
-            final ContentResolver contentResolver = context.getContentResolver();
-            final PackageManager manager = context.getPackageManager();
-            final AppWidgetManager widgets = AppWidgetManager.getInstance(context);
-            final boolean isSafeMode = manager.isSafeMode();
+            final CellOccupancy occupied = startLoadingWorkspace();
+            final ArrayList<Long> itemsToRemove = new ArrayList<Long>();
+            loadWorkspaceRows(null, occupied, itemsToRemove);
+            finishLoadingWorkspace(occupied, itemsToRemove, t);
+        }
 
+        /**
+         * Clears the workspace model before rows get loaded into it, and returns the map of
+         * occupied cells to pass to loadWorkspaceRows().
+         */
+        private CellOccupancy startLoadingWorkspace() {
             // Make sure the default workspace is loaded, if needed
             mApp.getLauncherProvider().loadDefaultFavoritesIfNecessary();
+            writePendingUpdates();
 
-            sWorkspaceItems.clear(); //存放container为CONTAINER_DESKTOP和CONTAINER_HOTSEAT类型的item  
+            sWorkspaceModelComplete = false;
+            sWorkspaceItems.clear(); //存放container为CONTAINER_DESKTOP和CONTAINER_HOTSEAT类型的item
             sAppWidgets.clear();
-            sFolders.clear();//存放的FolderInfo.id和FolderInfo组成的映射对  
-            sItemsIdMap.clear();//所有的item的id和ItemInfo组成的映射对  
+            sFolders.clear();//存放的FolderInfo.id和FolderInfo组成的映射对
+            sItemsIdMap.clear();//所有的item的id和ItemInfo组成的映射对
+            sItemsByPackage.clear();
             sDbIconCache.clear();
 
-            final ArrayList<Long> itemsToRemove = new ArrayList<Long>();
+            //代表屏幕中的每一个单位的方格是否被占用,其中最后一个屏幕代表Hotseat
+            sOccupied.reset(mCellCountX + 1, mCellCountY + 1);
+            return sOccupied;
+        }
+
+        /**
+         * Loads the favorites rows matching selection (all of them if it is null) into the
+         * workspace model. Rows that can't be used are added to itemsToRemove.
+         */
+        private void loadWorkspaceRows(String selection, CellOccupancy occupied,
+                ArrayList<Long> itemsToRemove) {
+            final Context context = mContext;
+            final ContentResolver contentResolver = context.getContentResolver();
+            final PackageManager manager = context.getPackageManager();
+            final AppWidgetManager widgets = AppWidgetManager.getInstance(context);
+            final boolean isSafeMode = manager.isSafeMode();
 
             final Cursor c = contentResolver.query(
-                    LauncherSettings.Favorites.CONTENT_URI, null, null, null, null);
-
-            // +1 for the hotseat (it can be larger than the workspace)
-            // Load workspace in reverse order to ensure that latest items are loaded first (and
-            // before any earlier duplicates)
-            //代表屏幕中的每一个单位的方格是否被占用。  
-            //第一维表示分屏的序号，其中最后一个代表Hotseat  
-            //第二维表示x方向方格的序号  
-            //第三维表示y方向方格的序号 
-            final ItemInfo occupied[][][] =
-                    new ItemInfo[Launcher.SCREEN_COUNT + 1][mCellCountX + 1][mCellCountY + 1];
+                    LauncherSettings.Favorites.CONTENT_URI, WorkspaceRow.PROJECTION, selection,
+                    null, null);
 
             try {
-                final int idIndex = c.getColumnIndexOrThrow(LauncherSettings.Favorites._ID);
-                final int intentIndex = c.getColumnIndexOrThrow
-                        (LauncherSettings.Favorites.INTENT);
-                final int titleIndex = c.getColumnIndexOrThrow
-                        (LauncherSettings.Favorites.TITLE);
-                final int iconTypeIndex = c.getColumnIndexOrThrow(
-                        LauncherSettings.Favorites.ICON_TYPE);
-                final int iconIndex = c.getColumnIndexOrThrow(LauncherSettings.Favorites.ICON);
-                final int iconPackageIndex = c.getColumnIndexOrThrow(
-                        LauncherSettings.Favorites.ICON_PACKAGE);
-                final int iconResourceIndex = c.getColumnIndexOrThrow(
-                        LauncherSettings.Favorites.ICON_RESOURCE);
-                final int containerIndex = c.getColumnIndexOrThrow(
-                        LauncherSettings.Favorites.CONTAINER);
-                final int itemTypeIndex = c.getColumnIndexOrThrow(
-                        LauncherSettings.Favorites.ITEM_TYPE);
-                final int appWidgetIdIndex = c.getColumnIndexOrThrow(
-                        LauncherSettings.Favorites.APPWIDGET_ID);
-                final int screenIndex = c.getColumnIndexOrThrow(
-                        LauncherSettings.Favorites.SCREEN);
-                final int cellXIndex = c.getColumnIndexOrThrow
-                        (LauncherSettings.Favorites.CELLX);
-                final int cellYIndex = c.getColumnIndexOrThrow
-                        (LauncherSettings.Favorites.CELLY);
-                final int spanXIndex = c.getColumnIndexOrThrow
-                        (LauncherSettings.Favorites.SPANX);
-                final int spanYIndex = c.getColumnIndexOrThrow(
-                        LauncherSettings.Favorites.SPANY);
-                //final int uriIndex = c.getColumnIndexOrThrow(LauncherSettings.Favorites.URI);
-                //final int displayModeIndex = c.getColumnIndexOrThrow(
-                //        LauncherSettings.Favorites.DISPLAY_MODE);
-
-                ShortcutInfo info;
-                String intentDescription;
-                LauncherAppWidgetInfo appWidgetInfo;
-                int container;
-                long id;
-                Intent intent;
-
-                while (!mStopped && c.moveToNext()) {
-                    try {
-                        int itemType = c.getInt(itemTypeIndex);
-
-                        switch (itemType) {
-                        case LauncherSettings.Favorites.ITEM_TYPE_APPLICATION:
-                        case LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT:
-                            intentDescription = c.getString(intentIndex);
-                            try {
-                                intent = Intent.parseUri(intentDescription, 0);
-                            } catch (URISyntaxException e) {
-                                continue;
-                            }
-
-                            if (itemType == LauncherSettings.Favorites.ITEM_TYPE_APPLICATION) {
-                                info = getShortcutInfo(manager, intent, context, c, iconIndex,
-                                        titleIndex, mLabelCache);
-                            } else {
-                                info = getShortcutInfo(c, context, iconTypeIndex,
-                                        iconPackageIndex, iconResourceIndex, iconIndex,
-                                        titleIndex);
-
-                                // App shortcuts that used to be automatically added to Launcher
-                                // didn't always have the correct intent flags set, so do that here
-                                if (intent.getAction() != null &&
-                                        intent.getCategories() != null &&
-                                        intent.getAction().equals(Intent.ACTION_MAIN) &&
-                                        intent.getCategories().contains(Intent.CATEGORY_LAUNCHER)) {
-                                    intent.addFlags(
-                                        Intent.FLAG_ACTIVITY_NEW_TASK |
-                                        Intent.FLAG_ACTIVITY_RESET_TASK_IF_NEEDED);
-                                }
-                            }
-
-                            if (info != null) {
-                                info.intent = intent;
-                                info.id = c.getLong(idIndex);
-                                container = c.getInt(containerIndex);
-                                info.container = container;
-                                info.screen = c.getInt(screenIndex);
-                                info.cellX = c.getInt(cellXIndex);
-                                info.cellY = c.getInt(cellYIndex);
-
-                                // check & update map of what's occupied
-                                //检查这个item所占的空间是否空闲，true表示空闲 
-                                if (!checkItemPlacement(occupied, info)) {
-                                    break;
-                                }
-
-                                switch (container) {
-                                case LauncherSettings.Favorites.CONTAINER_DESKTOP:
-                                case LauncherSettings.Favorites.CONTAINER_HOTSEAT:
-                                    //当加载的item类型为ITEM_TYPE_APPLICATION或者ITEM_TYPE_SHORTCUT  
-                                    //并且所属的container为CONTAINER_DESKTOP或者CONTAINER_HOTSEAT时  
-                                    //将其添加到sWorkspaceItems中  
-                                    sWorkspaceItems.add(info);//MYTODO: 加我们的+图标
-                                    break;
-                                default:
-                                    // Item is in a user folder
-                                    //如果item的container不是上述两者，则代表它处于一个folder中  
-                                    //将其添加到所属的folderInfo中  
-                                    FolderInfo folderInfo =
-                                            findOrMakeFolder(sFolders, container);
-                                    folderInfo.add(info);
-                                    break;
-                                }
-                                //所有的ITEM_TYPE_APPLICATION和ITEM_TYPE_SHORTCUT类型的item都需要  
-                                //加入到sItemsIdMap的映射对中。  
-                                sItemsIdMap.put(info.id, info);
-
-                                // now that we've loaded everthing re-save it with the
-                                // icon in case it disappears somehow.
-                                queueIconToBeChecked(sDbIconCache, info, c, iconIndex);
-                            } else {
-                                // Failed to load the shortcut, probably because the
-                                // activity manager couldn't resolve it (maybe the app
-                                // was uninstalled), or the db row was somehow screwed up.
-                                // Delete it.
-                                id = c.getLong(idIndex);
-                                Log.e(TAG, "Error loading shortcut " + id + ", removing it");
-                                contentResolver.delete(LauncherSettings.Favorites.getContentUri(
-                                            id, false), null, null);
-                            }
-                            break;
-
-                        case LauncherSettings.Favorites.ITEM_TYPE_FOLDER:
-                            id = c.getLong(idIndex);
-                            FolderInfo folderInfo = findOrMakeFolder(sFolders, id);
-
-                            folderInfo.title = c.getString(titleIndex);
-                            folderInfo.id = id;
-                            container = c.getInt(containerIndex);
-                            folderInfo.container = container;
-                            folderInfo.screen = c.getInt(screenIndex);
-                            folderInfo.cellX = c.getInt(cellXIndex);
-                            folderInfo.cellY = c.getInt(cellYIndex);
-
-                            // check & update map of what's occupied
-                            if (!checkItemPlacement(occupied, folderInfo)) {
-                                break;
-                            }
-                            switch (container) {
-                                case LauncherSettings.Favorites.CONTAINER_DESKTOP:
-                                case LauncherSettings.Favorites.CONTAINER_HOTSEAT:
-                                    sWorkspaceItems.add(folderInfo);
-                                    break;
-                            }
-
-                            sItemsIdMap.put(folderInfo.id, folderInfo);
-                            sFolders.put(folderInfo.id, folderInfo);
-                            break;
-
-                        case LauncherSettings.Favorites.ITEM_TYPE_APPWIDGET:
-                            // Read all Launcher-specific widget details
-                            int appWidgetId = c.getInt(appWidgetIdIndex);
-                            id = c.getLong(idIndex);
-
-                            final AppWidgetProviderInfo provider =
-                                    widgets.getAppWidgetInfo(appWidgetId);
-
-                            if (!isSafeMode && (provider == null || provider.provider == null ||
-                                    provider.provider.getPackageName() == null)) {
-                                String log = "Deleting widget that isn't installed anymore: id="
-                                    + id + " appWidgetId=" + appWidgetId;
-                                Log.e(TAG, log); 
-                                Launcher.sDumpLogs.add(log);
-                                itemsToRemove.add(id);
-                            } else {
-                                appWidgetInfo = new LauncherAppWidgetInfo(appWidgetId,
-                                        provider.provider);
-                                appWidgetInfo.id = id;
-                                appWidgetInfo.screen = c.getInt(screenIndex);
-                                appWidgetInfo.cellX = c.getInt(cellXIndex);
-                                appWidgetInfo.cellY = c.getInt(cellYIndex);
-                                appWidgetInfo.spanX = c.getInt(spanXIndex);
-                                appWidgetInfo.spanY = c.getInt(spanYIndex);
-                                int[] minSpan = Launcher.getMinSpanForWidget(context, provider);
-                                appWidgetInfo.minSpanX = minSpan[0];
-                                appWidgetInfo.minSpanY = minSpan[1];
-
-                                container = c.getInt(containerIndex);
-                                if (container != LauncherSettings.Favorites.CONTAINER_DESKTOP &&
-                                    container != LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
-                                    Log.e(TAG, "Widget found where container "
-                                        + "!= CONTAINER_DESKTOP nor CONTAINER_HOTSEAT - ignoring!");
-                                    continue;
-                                }
-                                appWidgetInfo.container = c.getInt(containerIndex);
-
-                                // check & update map of what's occupied
-                                if (!checkItemPlacement(occupied, appWidgetInfo)) {
-                                    break;
-                                }
-                                sItemsIdMap.put(appWidgetInfo.id, appWidgetInfo);
-                                sAppWidgets.add(appWidgetInfo);
-                            }
-                            break;
+                final WorkspaceRow.Columns columns = new WorkspaceRow.Columns(c);
+
+                if (mWorkspaceLoadThreads > 1) {
+                    // Read the raw rows first so that the decoders never touch the cursor, then
+                    // merge the results back in cursor order.
+                    final ArrayList<WorkspaceRow> rows = new ArrayList<WorkspaceRow>(c.getCount());
+                    while (!mStopped && c.moveToNext()) {
+                        rows.add(new WorkspaceRow(c, columns));
+                    }
+                    c.close();
+                    decodeAndMergeRows(rows, occupied, itemsToRemove, manager, widgets,
+                            isSafeMode);
+                } else {
+                    while (!mStopped && c.moveToNext()) {
+                        try {
+                            final WorkspaceRow row = new WorkspaceRow(c, columns);
+                            decodeRow(row, manager, widgets, isSafeMode, mLabelCache);
+                            mergeRow(row, occupied, itemsToRemove);
+                        } catch (Exception e) {
+                            Log.w(TAG, "Desktop items loading interrupted:", e);
                         }
-                    } catch (Exception e) {
-                        Log.w(TAG, "Desktop items loading interrupted:", e);
                     }
                 }
             } finally {
-                c.close();
+                if (!c.isClosed()) {
+                    c.close();
+                }
+            }
+        }
+
+        /**
+         * Marks the workspace model as complete and removes the rows that couldn't be used.
+         */
+        private void finishLoadingWorkspace(CellOccupancy occupied,
+                ArrayList<Long> itemsToRemove, long t) {
+            sWorkspaceModelComplete = !mStopped;
+            if (sWorkspaceModelComplete) {
+                publishModelSnapshot();
             }
 
             if (itemsToRemove.size() > 0) {
-                ContentProviderClient client = contentResolver.acquireContentProviderClient(
-                                LauncherSettings.Favorites.CONTENT_URI);
-                // Remove dead items
+                // Remove dead items, in one batch
+                final ArrayList<ContentProviderOperation> ops =
+                        new ArrayList<ContentProviderOperation>(itemsToRemove.size());
                 for (long id : itemsToRemove) {
                     if (DEBUG_LOADERS) {
                         Log.d(TAG, "Removed id = " + id);
                     }
                     // Don't notify content observers
-                    try {
-                        client.delete(LauncherSettings.Favorites.getContentUri(id, false),
-                                null, null);
-                    } catch (RemoteException e) {
-                        Log.w(TAG, "Could not remove id = " + id);
-                    }
+                    ops.add(ContentProviderOperation
+                            .newDelete(LauncherSettings.Favorites.getContentUri(id, false))
+                            .build());
                 }
+                applyBatch(mContext.getContentResolver(), ops, "dead items");
             }
 
             if (DEBUG_LOADERS) {
@@ -1281,7 +1951,7 @@ public class LauncherModel extends BroadcastReceiver {
                             line += " | ";
                         }
                         for (int x = 0; x < mCellCountX; x++) {
-                            line += ((occupied[s][x][y] != null) ? "#" : ".");
+                            line += (occupied.isOccupied(s, x, y) ? "#" : ".");
                         }
                     }
                     Log.d(TAG, "[ " + line + " ]");
@@ -1289,6 +1959,158 @@ public class LauncherModel extends BroadcastReceiver {
             }
         }
 
+        /**
+         * Decodes the rows on sWorkspaceDecoder and merges each one into the model as soon as
+         * it is ready. Rows are merged strictly in cursor order, so duplicate and occupancy
+         * handling is the same as in the serial loader.
+         */
+        private void decodeAndMergeRows(ArrayList<WorkspaceRow> rows, CellOccupancy occupied,
+                ArrayList<Long> itemsToRemove, final PackageManager manager,
+                final AppWidgetManager widgets, final boolean isSafeMode) {
+            final ExecutorService decoder = getWorkspaceDecoder(mWorkspaceLoadThreads);
+            final int N = rows.size();
+            final ArrayList<Future<?>> pending = new ArrayList<Future<?>>(N);
+            for (int i = 0; i < N; i++) {
+                final WorkspaceRow row = rows.get(i);
+                pending.add(decoder.submit(new Runnable() {
+                    public void run() {
+                        if (mStopped) {
+                            return;
+                        }
+                        // Failures are handled on the loader thread, see below
+                        decodeRow(row, manager, widgets, isSafeMode, mLabelCache);
+                    }
+                }));
+            }
+
+            for (int i = 0; i < N; i++) {
+                if (mStopped) {
+                    for (int j = i; j < N; j++) {
+                        pending.get(j).cancel(false);
+                    }
+                    break;
+                }
+                try {
+                    pending.get(i).get();
+                    mergeRow(rows.get(i), occupied, itemsToRemove);
+                } catch (InterruptedException e) {
+                    // Stop the load like stopLocked() does rather than leave this row out of
+                    // a model that would look complete (and be written to the snapshot)
+                    Thread.currentThread().interrupt();
+                    stopLocked();
+                    for (int j = i; j < N; j++) {
+                        pending.get(j).cancel(false);
+                    }
+                    break;
+                } catch (ExecutionException e) {
+                    // The decoder threw, skip the row just like the serial loader does
+                    Log.w(TAG, "Desktop items loading interrupted:", e.getCause());
+                } catch (Exception e) {
+                    Log.w(TAG, "Desktop items loading interrupted:", e);
+                }
+            }
+        }
+
+        /**
+         * Adds a decoded row to sWorkspaceItems/sFolders/sAppWidgets/sItemsIdMap. Only call
+         * this from the loader thread, in cursor order.
+         */
+        private void mergeRow(WorkspaceRow row, CellOccupancy occupied,
+                ArrayList<Long> itemsToRemove) {
+            switch (row.result) {
+            case WorkspaceRow.RESULT_IGNORE:
+                return;
+            case WorkspaceRow.RESULT_DELETE:
+                Log.e(TAG, "Error loading shortcut " + row.id + ", removing it");
+                mApp.getContentResolver().delete(LauncherSettings.Favorites.getContentUri(
+                            row.id, false), null, null);
+                return;
+            case WorkspaceRow.RESULT_DELETE_WIDGET:
+                String log = "Deleting widget that isn't installed anymore: id="
+                    + row.id + " appWidgetId=" + row.appWidgetId;
+                Log.e(TAG, log);
+                Launcher.sDumpLogs.add(log);
+                itemsToRemove.add(row.id);
+                return;
+            }
+
+            switch (row.itemType) {
+            case LauncherSettings.Favorites.ITEM_TYPE_APPLICATION:
+            case LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT:
+                final ShortcutInfo info = (ShortcutInfo) row.item;
+
+                // check & update map of what's occupied
+                //检查这个item所占的空间是否空闲，true表示空闲
+                if (!checkItemPlacement(occupied, info, itemsToRemove)) {
+                    break;
+                }
+
+                switch (row.container) {
+                case LauncherSettings.Favorites.CONTAINER_DESKTOP:
+                case LauncherSettings.Favorites.CONTAINER_HOTSEAT:
+                    //当加载的item类型为ITEM_TYPE_APPLICATION或者ITEM_TYPE_SHORTCUT
+                    //并且所属的container为CONTAINER_DESKTOP或者CONTAINER_HOTSEAT时
+                    //将其添加到sWorkspaceItems中
+                    sWorkspaceItems.add(info);//MYTODO: 加我们的+图标
+                    break;
+                default:
+                    // Item is in a user folder
+                    //如果item的container不是上述两者，则代表它处于一个folder中
+                    //将其添加到所属的folderInfo中
+                    FolderInfo folderInfo =
+                            findOrMakeFolder(sFolders, row.container);
+                    folderInfo.add(info);
+                    break;
+                }
+                //所有的ITEM_TYPE_APPLICATION和ITEM_TYPE_SHORTCUT类型的item都需要
+                //加入到sItemsIdMap的映射对中。
+                sItemsIdMap.put(info.id, info);
+                addToPackageIndex(info);
+
+                // now that we've loaded everthing re-save it with the
+                // icon in case it disappears somehow.
+                queueIconToBeChecked(sDbIconCache, info, row.iconHash);
+                break;
+
+            case LauncherSettings.Favorites.ITEM_TYPE_FOLDER:
+                FolderInfo folderInfo = findOrMakeFolder(sFolders, row.id);
+
+                folderInfo.title = row.title;
+                folderInfo.id = row.id;
+                folderInfo.container = row.container;
+                folderInfo.screen = row.screen;
+                folderInfo.cellX = row.cellX;
+                folderInfo.cellY = row.cellY;
+
+                // check & update map of what's occupied
+                if (!checkItemPlacement(occupied, folderInfo, itemsToRemove)) {
+                    break;
+                }
+                switch (row.container) {
+                    case LauncherSettings.Favorites.CONTAINER_DESKTOP:
+                    case LauncherSettings.Favorites.CONTAINER_HOTSEAT:
+                        sWorkspaceItems.add(folderInfo);
+                        break;
+                }
+
+                sItemsIdMap.put(folderInfo.id, folderInfo);
+                sFolders.put(folderInfo.id, folderInfo);
+                break;
+
+            case LauncherSettings.Favorites.ITEM_TYPE_APPWIDGET:
+                final LauncherAppWidgetInfo appWidgetInfo = (LauncherAppWidgetInfo) row.item;
+
+                // check & update map of what's occupied
+                if (!checkItemPlacement(occupied, appWidgetInfo, itemsToRemove)) {
+                    break;
+                }
+                sItemsIdMap.put(appWidgetInfo.id, appWidgetInfo);
+                addToPackageIndex(appWidgetInfo);
+                sAppWidgets.add(appWidgetInfo);
+                break;
+            }
+        }
+
         /**
          * 绑定Workspace,注意前提是已经从DB中加载了所有的Item到内存列表中.
          * Read everything out of our database.
@@ -1308,7 +2130,117 @@ public class LauncherModel extends BroadcastReceiver {
             // Get the list of workspace items to load and unbind the existing ShortcutInfos
             // before we call startBinding() below.
             final int currentScreen = oldCallbacks.getCurrentWorkspaceScreen();
-            final ArrayList<ItemInfo> tmpWorkspaceItems = unbindWorkspaceItemsOnMainThread();
+            final ModelSnapshot snapshot = unbindWorkspaceItemsOnMainThread();
+
+            // Tell the workspace that we're about to start firing items at it
+            postStartBinding(oldCallbacks);
+            bindWorkspaceItems(oldCallbacks, currentScreen, snapshot.workspaceItems,
+                    snapshot.appWidgets, snapshot.folders);
+            postFinishBinding(oldCallbacks, t);
+        }
+
+        /**
+         * 先加载并绑定当前屏幕和Hotseat,然后再加载绑定其它屏幕.
+         * Loads the current screen and the hotseat, with the contents of their folders, and
+         * binds them before the other screens are even read. The rows are split by screen, so
+         * the occupancy checks give the same result as loadWorkspace() does.
+         */
+        private void loadAndBindWorkspaceByScreen() {
+            final long t = SystemClock.uptimeMillis();
+
+            final Callbacks oldCallbacks = mCallbacks.get();
+            if (oldCallbacks == null) {
+                // This launcher has exited, there is nothing to bind
+                Log.w(TAG, "LoaderTask running with no launcher");
+                loadWorkspace();
+                return;
+            }
+            final int currentScreen = oldCallbacks.getCurrentWorkspaceScreen();
+
+            // Unbind what the workspace shows before the model gets cleared
+            unbindWorkspaceItemsOnMainThread();
+            postStartBinding(oldCallbacks);
+
+            final CellOccupancy occupied = startLoadingWorkspace();
+            final ArrayList<Long> itemsToRemove = new ArrayList<Long>();
+
+            final String firstScreens = "(" + LauncherSettings.Favorites.CONTAINER + "="
+                    + LauncherSettings.Favorites.CONTAINER_DESKTOP + " AND "
+                    + LauncherSettings.Favorites.SCREEN + "=" + currentScreen + ") OR "
+                    + LauncherSettings.Favorites.CONTAINER + "="
+                    + LauncherSettings.Favorites.CONTAINER_HOTSEAT;
+            loadWorkspaceRows(firstScreens, occupied, itemsToRemove);
+
+            // Only folders have been loaded so far, so these are the folders on those screens
+            String firstFolders = null;
+            final long[] folderIds = sFolders.keys();
+            if (folderIds.length > 0) {
+                final StringBuilder builder = new StringBuilder();
+                builder.append(LauncherSettings.Favorites.CONTAINER).append(" IN (");
+                for (int i = 0; i < folderIds.length; i++) {
+                    if (i > 0) {
+                        builder.append(',');
+                    }
+                    builder.append(folderIds[i]);
+                }
+                firstFolders = builder.append(')').toString();
+                loadWorkspaceRows(firstFolders, occupied, itemsToRemove);
+            }
+            if (mStopped) {
+                return;
+            }
+
+            final ModelSnapshot first = publishModelSnapshot();
+            final int firstItemCount = first.workspaceItems.size();
+            final int firstWidgetCount = first.appWidgets.size();
+            bindWorkspaceItems(oldCallbacks, currentScreen, first.workspaceItems,
+                    first.appWidgets, first.folders);
+            if (DEBUG_LOADERS) {
+                Log.d(TAG, "loaded " + firstItemCount + " items of the current screen in "
+                        + (SystemClock.uptimeMillis() - t) + "ms");
+            }
+
+            // Everything else
+            String otherScreens = "NOT (" + firstScreens + ")";
+            if (firstFolders != null) {
+                otherScreens += " AND NOT (" + firstFolders + ")";
+            }
+            loadWorkspaceRows(otherScreens, occupied, itemsToRemove);
+            finishLoadingWorkspace(occupied, itemsToRemove, t);
+            if (mStopped) {
+                return;
+            }
+
+            // The lists only grew since the first pass, so the new items are at their ends
+            final ModelSnapshot snapshot = publishModelSnapshot();
+            bindWorkspaceItems(oldCallbacks, currentScreen,
+                    snapshot.workspaceItems.subList(firstItemCount,
+                            snapshot.workspaceItems.size()),
+                    snapshot.appWidgets.subList(firstWidgetCount, snapshot.appWidgets.size()),
+                    snapshot.folders);
+            postFinishBinding(oldCallbacks, t);
+        }
+
+        private void postStartBinding(final Callbacks oldCallbacks) {
+            mHandler.post(new Runnable() {
+                public void run() {
+                    Callbacks callbacks = tryGetCallbacks(oldCallbacks);
+                    if (callbacks != null) {
+                        callbacks.startBinding();//开始绑定  
+                    }
+                }
+            });
+        }
+
+        /**
+         * Binds the given items and widgets, current screen and hotseat first, and then the
+         * folders. They must come from a published ModelSnapshot, the main thread keeps using
+         * them.
+         */
+        private void bindWorkspaceItems(final Callbacks oldCallbacks, int currentScreen,
+                List<ItemInfo> items, List<LauncherAppWidgetInfo> appWidgets,
+                final LongHashMap<FolderInfo> folders) {
+            final ArrayList<ItemInfo> tmpWorkspaceItems = new ArrayList<ItemInfo>(items);
             // Order the items for loading as follows: current workspace, hotseat, everything else
             Collections.sort(tmpWorkspaceItems, new Comparator<ItemInfo>() {
                 @Override
@@ -1338,16 +2270,6 @@ public class LauncherModel extends BroadcastReceiver {
                 }
             }
 
-            // Tell the workspace that we're about to start firing items at it
-            mHandler.post(new Runnable() {
-                public void run() {
-                    Callbacks callbacks = tryGetCallbacks(oldCallbacks);
-                    if (callbacks != null) {
-                        callbacks.startBinding();//开始绑定  
-                    }
-                }
-            });
-
             // Add the items to the workspace.
             int N = workspaceItems.size();
           //这里为什么也要分批次加载呢?难道是怕消息队列里一次处理的Runnable工作过重?
@@ -1364,8 +2286,6 @@ public class LauncherModel extends BroadcastReceiver {
                     }
                 });
             }
-            // Ensure that we don't use the same folders data structure on the main thread
-            final HashMap<Long, FolderInfo> folders = new HashMap<Long, FolderInfo>(sFolders);
             mHandler.post(new Runnable() {
                 public void run() {
                     Callbacks callbacks = tryGetCallbacks(oldCallbacks);
@@ -1387,10 +2307,10 @@ public class LauncherModel extends BroadcastReceiver {
             // but since getCurrentScreen() just returns the int, we should be okay.  This
             // is just a hint for the order, and if it's wrong, we'll be okay.
             // TODO: instead, we should have that push the current screen into here.
-            N = sAppWidgets.size();
+            N = appWidgets.size();
             // once for the current screen
             for (int i=0; i<N; i++) {
-                final LauncherAppWidgetInfo widget = sAppWidgets.get(i);
+                final LauncherAppWidgetInfo widget = appWidgets.get(i);
                 if (widget.screen == currentScreen) {//优先绑定当前屏幕的
                     mHandler.post(new Runnable() {
                         public void run() {
@@ -1404,7 +2324,7 @@ public class LauncherModel extends BroadcastReceiver {
             }
             // once for the other screens
             for (int i=0; i<N; i++) {
-                final LauncherAppWidgetInfo widget = sAppWidgets.get(i);
+                final LauncherAppWidgetInfo widget = appWidgets.get(i);
                 if (widget.screen != currentScreen) {//然后绑定其他屏幕的
                     mHandler.post(new Runnable() {
                         public void run() {
@@ -1416,6 +2336,9 @@ public class LauncherModel extends BroadcastReceiver {
                     });
                 }
             }
+        }
+
+        private void postFinishBinding(final Callbacks oldCallbacks, final long t) {
             // Tell the workspace that we're done.
             mHandler.post(new Runnable() {
                 public void run() {
@@ -1434,7 +2357,10 @@ public class LauncherModel extends BroadcastReceiver {
                             + (SystemClock.uptimeMillis()-t) + "ms");
                     }
 
-                    mIsLoadingAndBindingWorkspace = false;
+                    // Dragging stays disabled until a bound snapshot has been verified
+                    if (!mVerifyingSnapshot) {
+                        mIsLoadingAndBindingWorkspace = false;
+                    }
                 }
             });
         }
@@ -1487,7 +2413,7 @@ public class LauncherModel extends BroadcastReceiver {
 
         /**从系统中查询出所有应用,批量加载App应用列表到缓存中*/
         private void loadAllAppsByBatch() {
-            final long t = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
+            final long t = SystemClock.uptimeMillis();
 
             // Don't use these two variables in any of the callback runnables.
             // Otherwise we hold a reference to them.
@@ -1509,6 +2435,9 @@ public class LauncherModel extends BroadcastReceiver {
             int startIndex;
             int i=0;
             int batchSize = -1;
+            final boolean adaptive = mBatchSize < 0;
+            int batches = 0;
+            int waits = 0;
             while (i < N && !mStopped) {
                 if (i == 0) {//第一次查询出所有的应用
                     mAllAppsList.clear();
@@ -1530,7 +2459,7 @@ public class LauncherModel extends BroadcastReceiver {
                         // There are no apps?!?
                         return;
                     }
-                    if (mBatchSize == 0) {//mBatchSize==0表示一次性加载所有的应用 
+                    if (mBatchSize <= 0) {//mBatchSize==0表示一次性加载所有的应用 
                         batchSize = N;
                     } else {
                         batchSize = mBatchSize;
@@ -1538,16 +2467,20 @@ public class LauncherModel extends BroadcastReceiver {
 
                     final long sortTime = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
                     Collections.sort(apps,//将获取到的app的信息按名字进行排序  
-                            new LauncherModel.ShortcutNameComparator(packageManager, mLabelCache));
+                            new LauncherModel.ShortcutNameComparator(
+                                    mIconCache.getLabelStore(), mLabelCache));
                     if (DEBUG_LOADERS) {
                         Log.d(TAG, "sort took "
                                 + (SystemClock.uptimeMillis()-sortTime) + "ms");
                     }
                 }
 
-                final long t2 = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
+                final long t2 = SystemClock.uptimeMillis();
 
                 startIndex = i;
+                if (adaptive) {
+                    batchSize = getAdaptiveBatchSize(N - i);
+                }
                 
                 //添加一批应用信息到mAllAppsList，每一批添加mBatchSize个  
                 //这里有一个小技巧:外层的循环while有检查mStopped是否为true,
@@ -1557,13 +2490,30 @@ public class LauncherModel extends BroadcastReceiver {
                     mAllAppsList.add(new ApplicationInfo(packageManager, apps.get(i),
                             mIconCache, mLabelCache));
                     i++;// 这里i记录所有应用中,加载了的index.
+                    if (adaptive && SystemClock.uptimeMillis() - t2 >= ADAPTIVE_BATCH_BUILD_MS) {
+                        // Slower than predicted, show what we have
+                        break;
+                    }
                 }
+                final long buildTime = SystemClock.uptimeMillis() - t2;
+                mBuildMillisPerApp = buildTime / (float) (i - startIndex);
 
-                final boolean first = i <= batchSize;//i <= batchSize表示添加的是第一批信息  
+                final boolean first = startIndex == 0;//添加的是第一批信息  
                 final Callbacks callbacks = tryGetCallbacks(oldCallbacks);
                 final ArrayList<ApplicationInfo> added = mAllAppsList.added;
                 mAllAppsList.added = new ArrayList<ApplicationInfo>();//每添加完一批之后，相当于将added重新清空  
 
+                if (adaptive && batches > 0) {
+                    // Only hold back while the UI is still busy with the previous batch
+                    if (waitForBind()) {
+                        waits++;
+                    }
+                }
+                synchronized (LoaderTask.this) {
+                    mBindPending = adaptive;
+                }
+                batches++;
+
                 mHandler.post(new Runnable() {
                     public void run() {
                         final long t = SystemClock.uptimeMillis();
@@ -1573,22 +2523,37 @@ public class LauncherModel extends BroadcastReceiver {
                             } else {
                                 callbacks.bindAppsAdded(added);//其他批次的应用
                             }
+                            final long bindTime = SystemClock.uptimeMillis() - t;
+                            if (!added.isEmpty()) {
+                                mBindMillisPerApp = bindTime / (float) added.size();
+                            }
                             if (DEBUG_LOADERS) {
                                 Log.d(TAG, "bound " + added.size() + " apps in "
-                                    + (SystemClock.uptimeMillis() - t) + "ms");
+                                    + bindTime + "ms");
                             }
                         } else {
                             Log.i(TAG, "not binding apps: no Launcher activity");
                         }
                     }
                 });
+                if (adaptive) {
+                    // Runs once the UI has no input or animation frames left to handle
+                    mHandler.postIdle(new Runnable() {
+                        public void run() {
+                            synchronized (LoaderTask.this) {
+                                mBindPending = false;
+                                LoaderTask.this.notify();
+                            }
+                        }
+                    });
+                }
 
                 if (DEBUG_LOADERS) {
                     Log.d(TAG, "batch of " + (i-startIndex) + " icons processed in "
-                            + (SystemClock.uptimeMillis()-t2) + "ms");
+                            + buildTime + "ms");
                 }
 
-                if (mAllAppsLoadDelay > 0 && i < N) {//每加载完一批后,这里睡一会儿
+                if (!adaptive && mAllAppsLoadDelay > 0 && i < N) {//每加载完一批后,这里睡一会儿
                     try {
                         if (DEBUG_LOADERS) {
                             Log.d(TAG, "sleeping for " + mAllAppsLoadDelay + "ms");
@@ -1596,12 +2561,67 @@ public class LauncherModel extends BroadcastReceiver {
                         Thread.sleep(mAllAppsLoadDelay);
                     } catch (InterruptedException exc) { }
                 }
+
+                // Let the user's own changes (moving, adding, removing items) through between
+                // batches instead of after all the icons have been built. Once the workspace is
+                // loaded they only touch the workspace model, which this loop doesn't use.
+                if (mWorkspaceLoaded && i < N) {
+                    sWorker.runInteractiveTasks();
+                }
             }
 
+            final long loadTime = SystemClock.uptimeMillis() - t;
+            mAllAppsLoadStats = "loaded " + i + " apps in " + batches + " batches, " + loadTime
+                    + "ms (" + (loadTime > 0 ? batches * 1000 / loadTime : batches)
+                    + " batches/s, waited for the UI " + waits + " times)"
+                    + (adaptive ? " adaptive" : " batch size " + mBatchSize);
             if (DEBUG_LOADERS) {
                 Log.d(TAG, "cached all " + N + " apps in "
-                        + (SystemClock.uptimeMillis()-t) + "ms"
-                        + (mAllAppsLoadDelay > 0 ? " (including delay)" : ""));
+                        + loadTime + "ms"
+                        + (mAllAppsLoadDelay > 0 && !adaptive ? " (including delay)" : ""));
+            }
+        }
+
+        /**
+         * Returns how many apps the next batch should build in adaptive mode: as many as can
+         * be built in ADAPTIVE_BATCH_BUILD_MS and bound within ADAPTIVE_BIND_BUDGET_MS, going
+         * by the costs measured for the previous batches. With nothing measured yet it is
+         * everything, the build time limit in the loop ends the batch if needed.
+         */
+        private int getAdaptiveBatchSize(int remaining) {
+            int size = remaining;
+            final float build = mBuildMillisPerApp;
+            if (build > 0) {
+                size = Math.min(size, (int) (ADAPTIVE_BATCH_BUILD_MS / build));
+            }
+            final float bind = mBindMillisPerApp;
+            if (bind > 0) {
+                size = Math.min(size, (int) (ADAPTIVE_BIND_BUDGET_MS / bind));
+            }
+            return Math.max(size, 1);
+        }
+
+        /**
+         * Waits until the UI thread went idle after binding the previous batch. Returns whether
+         * it had to wait at all.
+         */
+        private boolean waitForBind() {
+            synchronized (LoaderTask.this) {
+                if (!mBindPending) {
+                    return false;
+                }
+                // Don't wait forever if the UI never goes idle
+                final long end = SystemClock.uptimeMillis() + ADAPTIVE_MAX_BIND_WAIT_MS;
+                long now = SystemClock.uptimeMillis();
+                while (!mStopped && mBindPending && now < end) {
+                    try {
+                        this.wait(end - now);
+                    } catch (InterruptedException ex) {
+                        // Ignore
+                    }
+                    now = SystemClock.uptimeMillis();
+                }
+                return true;
             }
         }
 
@@ -1611,17 +2631,160 @@ public class LauncherModel extends BroadcastReceiver {
             Log.d(TAG, "mLoaderTask.mIsLaunching=" + mIsLaunching);
             Log.d(TAG, "mLoaderTask.mStopped=" + mStopped);
             Log.d(TAG, "mLoaderTask.mLoadAndBindStepFinished=" + mLoadAndBindStepFinished);
-            Log.d(TAG, "mItems size=" + sWorkspaceItems.size());
+            Log.d(TAG, "mItems size=" + getModelSnapshot().workspaceItems.size());
+        }
+    }
+
+    /**
+     * Pins the icons of all apps and of the app shortcuts on the workspace in the IconCache,
+     * the bound items hold on to them anyway. Only call this on the worker thread.
+     */
+    private void updatePinnedIcons() {
+        final ArrayList<ComponentName> components = new ArrayList<ComponentName>();
+        for (ApplicationInfo app : mAllAppsList.data) {
+            components.add(app.componentName);
+        }
+        for (ItemInfo item : sItemsIdMap.values()) {
+            if (item.itemType == LauncherSettings.Favorites.ITEM_TYPE_APPLICATION
+                    && item instanceof ShortcutInfo && ((ShortcutInfo) item).intent != null) {
+                final ComponentName component = ((ShortcutInfo) item).intent.getComponent();
+                if (component != null) {
+                    components.add(component);
+                }
+            }
         }
+        mIconCache.setPinnedComponents(components);
     }
 
-    void enqueuePackageUpdated(PackageUpdatedTask task) {
-        sWorker.post(task);
+    /** Writes the label and icon stores once the worker has nothing more urgent to do. */
+    private void saveStores() {
+        sWorker.removeCallbacks(mSaveStores);
+        sWorker.post(LoaderScheduler.LANE_BACKGROUND, mSaveStores);
+    }
+
+    private final Runnable mSaveStores = new Runnable() {
+        public void run() {
+            mIconCache.getLabelStore().save();
+            mIconCache.getIconStore().save();
+        }
+    };
+
+    /**
+     * Queues a package change. Changes that arrive within mPackageUpdateDelay of each other
+     * are merged per package and applied by a single PackageUpdatedTask, so a burst of
+     * broadcasts (updating all apps, mounting the sd card) only binds once.
+     */
+    void enqueuePackageUpdated(int op, String[] packages) {
+        if (packages == null) {
+            return;
+        }
+        synchronized (mPendingPackageOps) {
+            for (String packageName : packages) {
+                PendingPackageOps ops = mPendingPackageOps.get(packageName);
+                if (ops == null) {
+                    ops = new PendingPackageOps();
+                    mPendingPackageOps.put(packageName, ops);
+                }
+                if (!ops.merge(op)) {
+                    // Added and removed again, the model never saw it
+                    mPendingPackageOps.remove(packageName);
+                }
+            }
+            if (!mPackageUpdatesScheduled) {
+                mPackageUpdatesScheduled = true;
+                sWorker.postDelayed(LoaderScheduler.LANE_ALL_APPS, mApplyPackageUpdates,
+                        mPackageUpdateDelay);
+            }
+        }
+    }
+
+    private final Runnable mApplyPackageUpdates = new Runnable() {
+        public void run() {
+            final PackageUpdatedTask task;
+            synchronized (mPendingPackageOps) {
+                mPackageUpdatesScheduled = false;
+                if (mPendingPackageOps.isEmpty()) {
+                    return;
+                }
+                task = new PackageUpdatedTask(mPendingPackageOps);
+                mPendingPackageOps.clear();
+            }
+            task.run();
+        }
+    };
+
+    /**
+     * Called when somebody else changed a favorites row (see LauncherProvider.sendNotify).
+     * Changes to a single row are applied to the loaded model in place; returns false if the
+     * uri doesn't name a row or the workspace isn't loaded yet, in which case the caller
+     * should fall back to reloading the workspace.
+     */
+    boolean onFavoriteChanged(Uri uri) {
+        if (uri == null || uri.getPathSegments().size() != 2) {
+            return false;
+        }
+        final long id;
+        try {
+            id = ContentUris.parseId(uri);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        synchronized (mLock) {
+            if (!mWorkspaceLoaded) {
+                return false;
+            }
+        }
+        sWorker.post(LoaderScheduler.LANE_WORKSPACE, new FavoriteChangedTask(id));
+        return true;
+    }
+
+    /**
+     * 一个包在合并窗口内的所有变化.
+     * The changes to one package within a debounce window, reduced to an optional removal
+     * followed by an optional add or update.
+     */
+    private static class PendingPackageOps {
+        int removeOp = PackageUpdatedTask.OP_NONE; // OP_REMOVE or OP_UNAVAILABLE
+        int addOp = PackageUpdatedTask.OP_NONE; // OP_ADD or OP_UPDATE
+
+        /** Merges op into the pending changes; returns false if nothing is left to do. */
+        boolean merge(int op) {
+            switch (op) {
+                case PackageUpdatedTask.OP_ADD:
+                    // If it was updated it is installed already, updating covers the add
+                    if (addOp != PackageUpdatedTask.OP_UPDATE) {
+                        addOp = PackageUpdatedTask.OP_ADD;
+                    }
+                    break;
+                case PackageUpdatedTask.OP_UPDATE:
+                    // An update of something that is about to be added is still an add
+                    if (addOp == PackageUpdatedTask.OP_NONE) {
+                        addOp = PackageUpdatedTask.OP_UPDATE;
+                    }
+                    break;
+                case PackageUpdatedTask.OP_REMOVE:
+                case PackageUpdatedTask.OP_UNAVAILABLE:
+                    final boolean wasAdded = addOp == PackageUpdatedTask.OP_ADD;
+                    addOp = PackageUpdatedTask.OP_NONE;
+                    if (wasAdded && removeOp == PackageUpdatedTask.OP_NONE) {
+                        return false;
+                    }
+                    // Uninstalling beats unmounting
+                    if (removeOp != PackageUpdatedTask.OP_REMOVE) {
+                        removeOp = op;
+                    }
+                    break;
+            }
+            return true;
+        }
     }
 
     private class PackageUpdatedTask implements Runnable {
-        int mOp;
-        String[] mPackages;
+        final ArrayList<String> mRemoved = new ArrayList<String>();
+        final ArrayList<String> mUnavailable = new ArrayList<String>();
+        final ArrayList<String> mAdded = new ArrayList<String>();
+        final ArrayList<String> mUpdated = new ArrayList<String>();
+        final ArrayList<String> mPackageNames;
 
         public static final int OP_NONE = 0;
         public static final int OP_ADD = 1;
@@ -1630,36 +2793,56 @@ public class LauncherModel extends BroadcastReceiver {
         public static final int OP_UNAVAILABLE = 4; // external media unmounted
 
 
-        public PackageUpdatedTask(int op, String[] packages) {
-            mOp = op;
-            mPackages = packages;
+        public PackageUpdatedTask(Map<String, PendingPackageOps> ops) {
+            mPackageNames = new ArrayList<String>(ops.keySet());
+            for (Map.Entry<String, PendingPackageOps> entry : ops.entrySet()) {
+                final String packageName = entry.getKey();
+                final PendingPackageOps op = entry.getValue();
+                if (op.removeOp == OP_REMOVE) {
+                    mRemoved.add(packageName);
+                } else if (op.removeOp == OP_UNAVAILABLE) {
+                    mUnavailable.add(packageName);
+                }
+                if (op.addOp == OP_ADD) {
+                    mAdded.add(packageName);
+                } else if (op.addOp == OP_UPDATE) {
+                    mUpdated.add(packageName);
+                }
+            }
         }
 
         public void run() {
             final Context context = mApp;
 
-            final String[] packages = mPackages;
-            final int N = packages.length;
-            switch (mOp) {
-                case OP_ADD:
-                    for (int i=0; i<N; i++) {
-                        if (DEBUG_LOADERS) Log.d(TAG, "mAllAppsList.addPackage " + packages[i]);
-                        mAllAppsList.addPackage(context, packages[i]);
-                    }
-                    break;
-                case OP_UPDATE:
-                    for (int i=0; i<N; i++) {
-                        if (DEBUG_LOADERS) Log.d(TAG, "mAllAppsList.updatePackage " + packages[i]);
-                        mAllAppsList.updatePackage(context, packages[i]);
-                    }
-                    break;
-                case OP_REMOVE:
-                case OP_UNAVAILABLE:
-                    for (int i=0; i<N; i++) {
-                        if (DEBUG_LOADERS) Log.d(TAG, "mAllAppsList.removePackage " + packages[i]);
-                        mAllAppsList.removePackage(packages[i]);
-                    }
-                    break;
+            // The stored labels and icons of these packages may be stale now
+            final LabelStore labels = mIconCache.getLabelStore();
+            final IconStore icons = mIconCache.getIconStore();
+            for (String packageName : mPackageNames) {
+                labels.removePackage(packageName);
+                icons.removePackage(packageName);
+            }
+
+            // Removals go first, a package can be removed and installed again in one window
+            for (String packageName : mUnavailable) {
+                if (DEBUG_LOADERS) Log.d(TAG, "mAllAppsList.removePackage " + packageName);
+                mAllAppsList.removePackage(packageName);
+            }
+            ArrayList<ApplicationInfo> unavailable = null;
+            if (mAllAppsList.removed.size() > 0) {
+                unavailable = mAllAppsList.removed;
+                mAllAppsList.removed = new ArrayList<ApplicationInfo>();
+            }
+            for (String packageName : mRemoved) {
+                if (DEBUG_LOADERS) Log.d(TAG, "mAllAppsList.removePackage " + packageName);
+                mAllAppsList.removePackage(packageName);
+            }
+            for (String packageName : mAdded) {
+                if (DEBUG_LOADERS) Log.d(TAG, "mAllAppsList.addPackage " + packageName);
+                mAllAppsList.addPackage(context, packageName);
+            }
+            for (String packageName : mUpdated) {
+                if (DEBUG_LOADERS) Log.d(TAG, "mAllAppsList.updatePackage " + packageName);
+                mAllAppsList.updatePackage(context, packageName);
             }
 
             ArrayList<ApplicationInfo> added = null;
@@ -1677,76 +2860,288 @@ public class LauncherModel extends BroadcastReceiver {
                     mIconCache.remove(info.intent.getComponent());
                 }
             }
+            if (unavailable != null) {
+                for (ApplicationInfo info: unavailable) {
+                    mIconCache.remove(info.intent.getComponent());
+                }
+            }
             if (mAllAppsList.modified.size() > 0) {
                 modified = mAllAppsList.modified;
                 mAllAppsList.modified = new ArrayList<ApplicationInfo>();
             }
 
+            updatePinnedIcons();
+            saveStores();
+
             final Callbacks callbacks = mCallbacks != null ? mCallbacks.get() : null;
             if (callbacks == null) {
                 Log.w(TAG, "Nobody to tell about the new app.  Launcher is probably loading.");
                 return;
             }
 
-            if (added != null) {
-                final ArrayList<ApplicationInfo> addedFinal = added;
-                mHandler.post(new Runnable() {
-                    public void run() {
-                        Callbacks cb = mCallbacks != null ? mCallbacks.get() : null;
-                        if (callbacks == cb && cb != null) {
-                            callbacks.bindAppsAdded(addedFinal);
-                        }
+            // Look up the workspace items here, the index may only be read on this thread
+            final ArrayList<ItemInfo> removedItems = removed == null ? null
+                    : getItemsForPackages(getPackageNames(removed));
+            final ArrayList<ItemInfo> unavailableItems = unavailable == null ? null
+                    : getItemsForPackages(getPackageNames(unavailable));
+            final ArrayList<ItemInfo> modifiedItems = modified == null ? null
+                    : getItemsForPackages(getPackageNames(modified));
+            final ArrayList<ApplicationInfo> addedFinal = added;
+            final ArrayList<ApplicationInfo> removedFinal = removed;
+            final ArrayList<ApplicationInfo> unavailableFinal = unavailable;
+            final ArrayList<ApplicationInfo> modifiedFinal = modified;
+
+            // Bind the whole window at once
+            mHandler.post(new Runnable() {
+                public void run() {
+                    Callbacks cb = mCallbacks != null ? mCallbacks.get() : null;
+                    if (callbacks != cb || cb == null) {
+                        return;
                     }
-                });
-            }
-            if (modified != null) {
-                final ArrayList<ApplicationInfo> modifiedFinal = modified;
-                mHandler.post(new Runnable() {
-                    public void run() {
-                        Callbacks cb = mCallbacks != null ? mCallbacks.get() : null;
-                        if (callbacks == cb && cb != null) {
-                            callbacks.bindAppsUpdated(modifiedFinal);
-                        }
+                    if (removedFinal != null) {
+                        callbacks.bindAppsRemoved(removedFinal, removedItems, true);
                     }
-                });
+                    if (unavailableFinal != null) {
+                        callbacks.bindAppsRemoved(unavailableFinal, unavailableItems, false);
+                    }
+                    if (addedFinal != null) {
+                        callbacks.bindAppsAdded(addedFinal);
+                    }
+                    if (modifiedFinal != null) {
+                        callbacks.bindAppsUpdated(modifiedFinal, modifiedItems);
+                    }
+                    callbacks.bindPackagesUpdated();
+                }
+            });
+        }
+    }
+
+    /**
+     * Re-reads one favorites row and swaps the item with that id in the model for the new one:
+     * the old item (if any) is unbound with bindItemsRemoved() and the new one (if the row
+     * still exists and can be loaded) is bound with bindItemsAdded(). The folder contents are
+     * shared with the bound views, so they are only changed on the UI thread, with
+     * FolderInfo.add()/remove() before the callbacks run.
+     */
+    private class FavoriteChangedTask implements Runnable {
+        long mId;
+
+        public FavoriteChangedTask(long id) {
+            mId = id;
+        }
+
+        public void run() {
+            synchronized (mLock) {
+                // A full load is pending, it will read the row anyway
+                if (!mWorkspaceLoaded) {
+                    return;
+                }
             }
-            if (removed != null) {
-                final boolean permanent = mOp != OP_UNAVAILABLE;
-                final ArrayList<ApplicationInfo> removedFinal = removed;
-                mHandler.post(new Runnable() {
-                    public void run() {
-                        Callbacks cb = mCallbacks != null ? mCallbacks.get() : null;
-                        if (callbacks == cb && cb != null) {
-                            callbacks.bindAppsRemoved(removedFinal, permanent);
+
+            writePendingUpdates();
+            final Context context = mApp;
+            final ContentResolver cr = context.getContentResolver();
+            final Cursor c = cr.query(LauncherSettings.Favorites.getContentUri(mId, false),
+                    WorkspaceRow.PROJECTION, null, null, null);
+            if (c == null) {
+                return;
+            }
+            WorkspaceRow row = null;
+            try {
+                if (c.moveToFirst()) {
+                    row = new WorkspaceRow(c, new WorkspaceRow.Columns(c));
+                }
+            } finally {
+                c.close();
+            }
+
+            final ItemInfo oldItem = sItemsIdMap.get(mId);
+            ItemInfo newItem = null;
+            if (row != null) {
+                final PackageManager manager = context.getPackageManager();
+                decodeRow(row, manager, AppWidgetManager.getInstance(context),
+                        manager.isSafeMode(), null);
+                switch (row.result) {
+                case WorkspaceRow.RESULT_OK:
+                    newItem = row.itemType == LauncherSettings.Favorites.ITEM_TYPE_FOLDER
+                            ? makeFolder(row, oldItem) : row.item;
+                    break;
+                case WorkspaceRow.RESULT_DELETE:
+                case WorkspaceRow.RESULT_DELETE_WIDGET:
+                    Log.e(TAG, "Error loading changed item " + row.id + ", removing it");
+                    cr.delete(LauncherSettings.Favorites.getContentUri(row.id, false),
+                            null, null);
+                    break;
+                }
+            }
+            if (oldItem == null && newItem == null) {
+                return;
+            }
+
+            final ArrayList<ItemInfo> removed = new ArrayList<ItemInfo>();
+            final ArrayList<ItemInfo> added = new ArrayList<ItemInfo>();
+            FolderInfo oldFolder = null;
+            FolderInfo newFolder = null;
+            if (oldItem != null) {
+                sItemsIdMap.remove(oldItem.id);
+                removeFromPackageIndex(oldItem);
+                sWorkspaceItems.remove(oldItem);
+                sFolders.remove(oldItem.id);
+                sDbIconCache.remove(oldItem);
+                if (oldItem instanceof LauncherAppWidgetInfo) {
+                    sAppWidgets.remove((LauncherAppWidgetInfo) oldItem);
+                } else if (oldItem instanceof ShortcutInfo) {
+                    oldFolder = sFolders.get(oldItem.container);
+                } else if (oldItem instanceof FolderInfo && oldItem != newItem) {
+                    // 文件夹被删除了,它的内容也不再属于模型. The contents list belongs to
+                    // the UI thread, the children are found by their container instead
+                    final ArrayList<ItemInfo> children = new ArrayList<ItemInfo>();
+                    for (ItemInfo item : sItemsIdMap.values()) {
+                        if (item instanceof ShortcutInfo && item.container == oldItem.id) {
+                            children.add(item);
                         }
                     }
-                });
+                    for (ItemInfo child : children) {
+                        sItemsIdMap.remove(child.id);
+                        removeFromPackageIndex(child);
+                        sDbIconCache.remove(child);
+                    }
+                }
+                removed.add(oldItem);
+            }
+            if (newItem != null) {
+                sItemsIdMap.put(newItem.id, newItem);
+                addToPackageIndex(newItem);
+                if (newItem instanceof LauncherAppWidgetInfo) {
+                    sAppWidgets.add((LauncherAppWidgetInfo) newItem);
+                } else if (newItem.container == LauncherSettings.Favorites.CONTAINER_DESKTOP ||
+                        newItem.container == LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
+                    sWorkspaceItems.add(newItem);
+                }
+                if (newItem instanceof FolderInfo) {
+                    sFolders.put(newItem.id, (FolderInfo) newItem);
+                } else if (newItem instanceof ShortcutInfo) {
+                    queueIconToBeChecked(sDbIconCache, (ShortcutInfo) newItem,
+                            row.iconHash);
+                    // A folder whose row hasn't been read yet picks it up in makeFolder()
+                    newFolder = sFolders.get(newItem.container);
+                }
+                added.add(newItem);
             }
+            onWorkspaceModelChanged();
 
+            final FolderInfo oldFolderFinal = oldFolder;
+            final FolderInfo newFolderFinal = newFolder;
+            final ItemInfo oldItemFinal = oldItem;
+            final ItemInfo newItemFinal = newItem;
+            final Callbacks callbacks = mCallbacks != null ? mCallbacks.get() : null;
             mHandler.post(new Runnable() {
-                @Override
                 public void run() {
+                    // Even without callbacks, so the folders don't keep the old shortcut
+                    if (oldFolderFinal != null) {
+                        oldFolderFinal.remove((ShortcutInfo) oldItemFinal);
+                    }
+                    if (newFolderFinal != null) {
+                        newFolderFinal.add((ShortcutInfo) newItemFinal);
+                    }
                     Callbacks cb = mCallbacks != null ? mCallbacks.get() : null;
                     if (callbacks == cb && cb != null) {
-                        callbacks.bindPackagesUpdated();
+                        if (!removed.isEmpty()) {
+                            callbacks.bindItemsRemoved(removed);
+                        }
+                        if (!added.isEmpty()) {
+                            callbacks.bindItemsAdded(added);
+                        }
                     }
                 }
             });
         }
+
+        /**
+         * Folders keep their FolderInfo when their row changes so the contents stay in place.
+         * A new folder picks up any shortcuts whose rows were written before its own row.
+         */
+        private FolderInfo makeFolder(WorkspaceRow row, ItemInfo oldItem) {
+            final FolderInfo folderInfo;
+            if (oldItem instanceof FolderInfo) {
+                folderInfo = (FolderInfo) oldItem;
+            } else {
+                folderInfo = new FolderInfo();
+                for (ItemInfo item : sItemsIdMap.values()) {
+                    if (item instanceof ShortcutInfo && item.container == row.id) {
+                        folderInfo.contents.add((ShortcutInfo) item);
+                    }
+                }
+            }
+            folderInfo.title = row.title;
+            folderInfo.id = row.id;
+            folderInfo.container = row.container;
+            folderInfo.screen = row.screen;
+            folderInfo.cellX = row.cellX;
+            folderInfo.cellY = row.cellY;
+            return folderInfo;
+        }
+    }
+
+    private static HashSet<String> getPackageNames(ArrayList<ApplicationInfo> apps) {
+        final HashSet<String> packageNames = new HashSet<String>();
+        for (ApplicationInfo app : apps) {
+            packageNames.add(app.componentName.getPackageName());
+        }
+        return packageNames;
+    }
+
+    /**
+     * Runs r on the worker thread, right away if this is the worker thread, so that it can use
+     * the worker's model (sItemsIdMap, sItemsByPackage, ...).
+     */
+    static void runOnWorkerThread(Runnable r) {
+        if (sWorker.isCurrentThread()) {
+            r.run();
+        } else {
+            sWorker.post(LoaderScheduler.LANE_INTERACTIVE, r);
+        }
+    }
+
+    /**
+     * Returns the ids, in ascending order, of the shortcuts (also the ones in folders) with the
+     * given title whose intent filterEquals() intent, or null if the model can't tell: it isn't
+     * completely loaded, or the intent doesn't name a package to look it up in
+     * sItemsByPackage. Only call this from the worker thread.
+     */
+    static ArrayList<Long> getShortcutIds(String title, Intent intent) {
+        final String packageName = ItemInfo.getPackageName(intent);
+        if (!sWorkspaceModelComplete || TextUtils.isEmpty(packageName)) {
+            return null;
+        }
+        final ArrayList<Long> ids = new ArrayList<Long>();
+        final ArrayList<ItemInfo> items = sItemsByPackage.get(packageName);
+        if (items != null) {
+            for (ItemInfo item : items) {
+                if (item instanceof ShortcutInfo) {
+                    final ShortcutInfo info = (ShortcutInfo) item;
+                    if (info.intent != null && TextUtils.equals(info.title, title)
+                            && intent.filterEquals(info.intent)) {
+                        ids.add(info.id);
+                    }
+                }
+            }
+        }
+        Collections.sort(ids);
+        return ids;
     }
 
     /**
-     * Returns all the Workspace ShortcutInfos associated with a particular package.
-     * @param intent
-     * @return
+     * Returns all the Workspace ShortcutInfos associated with a particular package, including
+     * the ones in folders. Only call this from the worker thread.
      */
     ArrayList<ShortcutInfo> getShortcutInfosForPackage(String packageName) {
         ArrayList<ShortcutInfo> infos = new ArrayList<ShortcutInfo>();
-        for (ItemInfo i : sWorkspaceItems) {
-            if (i instanceof ShortcutInfo) {
-                ShortcutInfo info = (ShortcutInfo) i;
-                if (packageName.equals(info.getPackageName())) {
-                    infos.add(info);
+        ArrayList<ItemInfo> items = sItemsByPackage.get(packageName);
+        if (items != null) {
+            for (ItemInfo i : items) {
+                if (i instanceof ShortcutInfo) {
+                    infos.add((ShortcutInfo) i);
                 }
             }
         }
@@ -1758,16 +3153,16 @@ public class LauncherModel extends BroadcastReceiver {
      * doesn't have a Cursor, but
      */
     public ShortcutInfo getShortcutInfo(PackageManager manager, Intent intent, Context context) {
-        return getShortcutInfo(manager, intent, context, null, -1, -1, null);
+        return getShortcutInfo(manager, intent, context, null, null);
     }
 
     /**
      * Make an ShortcutInfo object for a shortcut that is an application.
      *
-     * If c is not null, then it will be used to fill in missing data like the title and icon.
+     * If row is not null, then it will be used to fill in missing data like the title and icon.
      */
-    public ShortcutInfo getShortcutInfo(PackageManager manager, Intent intent, Context context,
-            Cursor c, int iconIndex, int titleIndex, HashMap<Object, CharSequence> labelCache) {
+    ShortcutInfo getShortcutInfo(PackageManager manager, Intent intent, Context context,
+            WorkspaceRow row, Map<Object, CharSequence> labelCache) {
         Bitmap icon = null;
         final ShortcutInfo info = new ShortcutInfo();
 
@@ -1819,8 +3214,8 @@ public class LauncherModel extends BroadcastReceiver {
         }
         // the db
         if (icon == null) {
-            if (c != null) {
-                icon = getIconFromCursor(c, iconIndex, context);
+            if (row != null) {
+                icon = getSavedIcon(row.id, context);
             }
         }
         // the fallback icon
@@ -1836,7 +3231,7 @@ public class LauncherModel extends BroadcastReceiver {
             if (labelCache != null && labelCache.containsKey(key)) {
                 info.title = labelCache.get(key);
             } else {
-                info.title = resolveInfo.activityInfo.loadLabel(manager);
+                info.title = mIconCache.getLabelStore().getLabel(resolveInfo);
                 if (labelCache != null) {
                     labelCache.put(key, info.title);
                 }
@@ -1844,8 +3239,8 @@ public class LauncherModel extends BroadcastReceiver {
         }
         // from the db
         if (info.title == null) {
-            if (c != null) {
-                info.title =  c.getString(titleIndex);
+            if (row != null) {
+                info.title = row.title;
             }
         }
         // fall back to the class name of the activity
@@ -1859,9 +3254,7 @@ public class LauncherModel extends BroadcastReceiver {
     /**
      * Make an ShortcutInfo object for a shortcut that isn't an application.
      */
-    private ShortcutInfo getShortcutInfo(Cursor c, Context context,
-            int iconTypeIndex, int iconPackageIndex, int iconResourceIndex, int iconIndex,
-            int titleIndex) {
+    private ShortcutInfo getShortcutInfo(WorkspaceRow row, Context context) {
 
         Bitmap icon = null;
         final ShortcutInfo info = new ShortcutInfo();
@@ -1869,13 +3262,12 @@ public class LauncherModel extends BroadcastReceiver {
 
         // TODO: If there's an explicit component and we can't install that, delete it.
 
-        info.title = c.getString(titleIndex);
+        info.title = row.title;
 
-        int iconType = c.getInt(iconTypeIndex);
-        switch (iconType) {
+        switch (row.iconType) {
         case LauncherSettings.Favorites.ICON_TYPE_RESOURCE:
-            String packageName = c.getString(iconPackageIndex);
-            String resourceName = c.getString(iconResourceIndex);
+            String packageName = row.iconPackage;
+            String resourceName = row.iconResource;
             PackageManager packageManager = context.getPackageManager();
             info.customIcon = false;
             // the resource
@@ -1883,15 +3275,15 @@ public class LauncherModel extends BroadcastReceiver {
                 Resources resources = packageManager.getResourcesForApplication(packageName);
                 if (resources != null) {
                     final int id = resources.getIdentifier(resourceName, null, null);
-                    icon = Utilities.createIconBitmap(
-                            mIconCache.getFullResIcon(resources, id), context);
+                    icon = mIconCache.getSharedBitmaps().acquire(Utilities.createIconBitmap(
+                            mIconCache.getFullResIcon(resources, id), context));
                 }
             } catch (Exception e) {
                 // drop this.  we have other places to look for icons
             }
             // the db
             if (icon == null) {
-                icon = getIconFromCursor(c, iconIndex, context);
+                icon = getSavedIcon(row.id, context);
             }
             // the fallback icon
             if (icon == null) {
@@ -1900,7 +3292,7 @@ public class LauncherModel extends BroadcastReceiver {
             }
             break;
         case LauncherSettings.Favorites.ICON_TYPE_BITMAP:
-            icon = getIconFromCursor(c, iconIndex, context);
+            icon = getSavedIcon(row.id, context);
             if (icon == null) {
                 icon = getFallbackIcon();
                 info.customIcon = false;
@@ -1919,17 +3311,28 @@ public class LauncherModel extends BroadcastReceiver {
         return info;
     }
 
-    Bitmap getIconFromCursor(Cursor c, int iconIndex, Context context) {
-        @SuppressWarnings("all") // suppress dead code warning
-        final boolean debug = false;
-        if (debug) {
-            Log.d(TAG, "getIconFromCursor app="
-                    + c.getString(c.getColumnIndexOrThrow(LauncherSettings.Favorites.TITLE)));
+    /**
+     * Returns the icon saved for the favorite with the given id, or null if there is none. The
+     * icons are kept apart from the favorites and only read for the items that need them.
+     */
+    Bitmap getSavedIcon(long id, Context context) {
+        final Cursor c = context.getContentResolver().query(
+                LauncherSettings.Favorites.getIconUri(id),
+                new String[] { LauncherSettings.Favorites.ICON }, null, null, null);
+        if (c == null) {
+            return null;
         }
-        byte[] data = c.getBlob(iconIndex);
         try {
-            return Utilities.createIconBitmap(
-                    BitmapFactory.decodeByteArray(data, 0, data.length), context);
+            return c.moveToFirst() ? getIconFromBlob(c.getBlob(0), context) : null;
+        } finally {
+            c.close();
+        }
+    }
+
+    Bitmap getIconFromBlob(byte[] data, Context context) {
+        try {
+            return mIconCache.getSharedBitmaps().acquire(Utilities.createIconBitmap(
+                    IconCodec.decode(data), context));
         } catch (Exception e) {
             return null;
         }
@@ -2054,8 +3457,14 @@ public class LauncherModel extends BroadcastReceiver {
         return info;
     }
 
-    boolean queueIconToBeChecked(HashMap<Object, byte[]> cache, ShortcutInfo info, Cursor c,
-            int iconIndex) {
+    boolean queueIconToBeChecked(HashMap<Object, Long> cache, ShortcutInfo info,
+            long savedIconHash) {
+        // Icons saved without a hash, or in an older format (PNG, see the upgrade to database
+        // version 14), are saved again in the current one, custom ones included
+        if (savedIconHash == 0 && !info.usingFallbackIcon) {
+            cache.put(info, 0L);
+            return true;
+        }
         // If apps can't be on SD, don't even bother.
         if (!mAppsCanBeOnExternalStorage) {
             return false;
@@ -2067,24 +3476,19 @@ public class LauncherModel extends BroadcastReceiver {
         // package manager can't find an icon (for example because
         // the app is on SD) then we can use that instead.
         if (!info.customIcon && !info.usingFallbackIcon) {
-            cache.put(info, c.getBlob(iconIndex));
+            cache.put(info, savedIconHash);
             return true;
         }
         return false;
     }
-    void updateSavedIcon(Context context, ShortcutInfo info, byte[] data) {
-        boolean needSave = false;
-        try {
-            if (data != null) {
-                Bitmap saved = BitmapFactory.decodeByteArray(data, 0, data.length);
-                Bitmap loaded = info.getIcon(mIconCache);
-                needSave = !saved.sameAs(loaded);
-            } else {
-                needSave = true;
-            }
-        } catch (Exception e) {
-            needSave = true;
-        }
+    /**
+     * Saves the icon of info back into the database if it isn't the one that was saved, as told
+     * by the iconHash of its row; 0 means there is no icon or no hash for it yet. Only hashes
+     * are compared, the saved icon isn't read or decoded.
+     */
+    void updateSavedIcon(Context context, ShortcutInfo info, long savedIconHash) {
+        final boolean needSave = savedIconHash == 0
+                || Utilities.hashIconPixels(info.getIcon(mIconCache)) != savedIconHash;
         if (needSave) {
             Log.d(TAG, "going to save icon bitmap for info=" + info);
             // This is slower than is ideal, but this only happens once
@@ -2097,7 +3501,7 @@ public class LauncherModel extends BroadcastReceiver {
      * Return an existing FolderInfo object if we have encountered this ID previously,
      * or make a new one.
      */
-    private static FolderInfo findOrMakeFolder(HashMap<Long, FolderInfo> folders, long id) {
+    private static FolderInfo findOrMakeFolder(LongHashMap<FolderInfo> folders, long id) {
         // See if a placeholder was created for us already
         FolderInfo folderInfo = folders.get(id);
         if (folderInfo == null) {
@@ -2109,10 +3513,22 @@ public class LauncherModel extends BroadcastReceiver {
     }
 
     private static final Collator sCollator = Collator.getInstance();
+
+    /**
+     * Returns the collation key of a label. Comparing keys is a plain byte comparison, so
+     * anything that gets sorted or searched more than once should compare keys rather than
+     * run the collator on every comparison.
+     */
+    static CollationKey getCollationKey(CharSequence label) {
+        synchronized (sCollator) {
+            return sCollator.getCollationKey(label != null ? label.toString() : "");
+        }
+    }
+
     public static final Comparator<ApplicationInfo> APP_NAME_COMPARATOR
             = new Comparator<ApplicationInfo>() {
         public final int compare(ApplicationInfo a, ApplicationInfo b) {
-            int result = sCollator.compare(a.title.toString(), b.title.toString());
+            int result = a.getTitleKey().compareTo(b.getTitleKey());
             if (result == 0) {
                 result = a.componentName.compareTo(b.componentName);
             }
@@ -2127,12 +3543,6 @@ public class LauncherModel extends BroadcastReceiver {
             return 0;
         }
     };
-    public static final Comparator<AppWidgetProviderInfo> WIDGET_NAME_COMPARATOR
-            = new Comparator<AppWidgetProviderInfo>() {
-        public final int compare(AppWidgetProviderInfo a, AppWidgetProviderInfo b) {
-            return sCollator.compare(a.label.toString(), b.label.toString());
-        }
-    };
     static ComponentName getComponentNameFromResolveInfo(ResolveInfo info) {
         if (info.activityInfo != null) {
             return new ComponentName(info.activityInfo.packageName, info.activityInfo.name);
@@ -2143,63 +3553,57 @@ public class LauncherModel extends BroadcastReceiver {
     
     /**将获取到的app的信息按名字进行排序,并且把它们的ComponentName->Label缓存到Map中  */
     public static class ShortcutNameComparator implements Comparator<ResolveInfo> {
-        private PackageManager mPackageManager;
-        private HashMap<Object, CharSequence> mLabelCache;
-        ShortcutNameComparator(PackageManager pm) {
-            mPackageManager = pm;
+        private LabelStore mLabels;
+        private Map<Object, CharSequence> mLabelCache;
+        // Collation keys of the labels, each one is computed once per sort
+        private HashMap<ComponentName, CollationKey> mKeys =
+                new HashMap<ComponentName, CollationKey>();
+        ShortcutNameComparator(LabelStore labels) {
+            mLabels = labels;
             mLabelCache = new HashMap<Object, CharSequence>();
         }
-        ShortcutNameComparator(PackageManager pm, HashMap<Object, CharSequence> labelCache) {
-            mPackageManager = pm;
+        ShortcutNameComparator(LabelStore labels, Map<Object, CharSequence> labelCache) {
+            mLabels = labels;
             mLabelCache = labelCache;
         }
-        public final int compare(ResolveInfo a, ResolveInfo b) {
-            CharSequence labelA, labelB;
-            ComponentName keyA = LauncherModel.getComponentNameFromResolveInfo(a);
-            ComponentName keyB = LauncherModel.getComponentNameFromResolveInfo(b);
-            if (mLabelCache.containsKey(keyA)) {
-                labelA = mLabelCache.get(keyA);
-            } else {
-                labelA = a.loadLabel(mPackageManager).toString();
-
-                mLabelCache.put(keyA, labelA);
-            }
-            if (mLabelCache.containsKey(keyB)) {
-                labelB = mLabelCache.get(keyB);
-            } else {
-                labelB = b.loadLabel(mPackageManager).toString();
-
-                mLabelCache.put(keyB, labelB);
+        private CollationKey getKey(ResolveInfo info) {
+            ComponentName component = LauncherModel.getComponentNameFromResolveInfo(info);
+            CollationKey key = mKeys.get(component);
+            if (key == null) {
+                CharSequence label = mLabelCache.get(component);
+                if (label == null) {
+                    label = mLabels.getLabel(info);
+                    mLabelCache.put(component, label);
+                }
+                key = getCollationKey(label);
+                mKeys.put(component, key);
             }
-            return sCollator.compare(labelA, labelB);
+            return key;
+        }
+        public final int compare(ResolveInfo a, ResolveInfo b) {
+            return getKey(a).compareTo(getKey(b));
         }
     };
     public static class WidgetAndShortcutNameComparator implements Comparator<Object> {
         private PackageManager mPackageManager;
-        private HashMap<Object, String> mLabelCache;
+        // Collation keys of the labels, each label is loaded and collated once per sort
+        private HashMap<Object, CollationKey> mKeys;
         WidgetAndShortcutNameComparator(PackageManager pm) {
             mPackageManager = pm;
-            mLabelCache = new HashMap<Object, String>();
+            mKeys = new HashMap<Object, CollationKey>();
         }
-        public final int compare(Object a, Object b) {
-            String labelA, labelB;
-            if (mLabelCache.containsKey(a)) {
-                labelA = mLabelCache.get(a);
-            } else {
-                labelA = (a instanceof AppWidgetProviderInfo) ?
-                    ((AppWidgetProviderInfo) a).label :
-                    ((ResolveInfo) a).loadLabel(mPackageManager).toString();
-                mLabelCache.put(a, labelA);
+        private CollationKey getKey(Object o) {
+            CollationKey key = mKeys.get(o);
+            if (key == null) {
+                key = getCollationKey((o instanceof AppWidgetProviderInfo) ?
+                    ((AppWidgetProviderInfo) o).label :
+                    ((ResolveInfo) o).loadLabel(mPackageManager));
+                mKeys.put(o, key);
             }
-            if (mLabelCache.containsKey(b)) {
-                labelB = mLabelCache.get(b);
-            } else {
-                labelB = (b instanceof AppWidgetProviderInfo) ?
-                    ((AppWidgetProviderInfo) b).label :
-                    ((ResolveInfo) b).loadLabel(mPackageManager).toString();
-                mLabelCache.put(b, labelB);
-            }
-            return sCollator.compare(labelA, labelB);
+            return key;
+        }
+        public final int compare(Object a, Object b) {
+            return getKey(a).compareTo(getKey(b));
         }
     };
 
@@ -2215,4 +3619,16 @@ public class LauncherModel extends BroadcastReceiver {
             Log.d(TAG, "mLoaderTask=null");
         }
     }
+
+    /** Prints the worker's queue depths and waiting times and the last all apps load. */
+    public void dump(String prefix, PrintWriter writer) {
+        sWorker.dump(prefix, writer);
+        writer.println(prefix + "All apps: " + mAllAppsLoadStats);
+        mIconCache.dump(prefix, writer);
+        final ModelSnapshot snapshot = getModelSnapshot();
+        writer.println(prefix + "Workspace model: version=" + snapshot.version
+                + " items=" + snapshot.workspaceItems.size()
+                + " widgets=" + snapshot.appWidgets.size()
+                + " folders=" + snapshot.folders.size());
+    }
 }
@@ -22,11 +22,14 @@ import android.appwidget.AppWidgetManager;
 import android.appwidget.AppWidgetProviderInfo;
 import android.content.ComponentName;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.pm.ActivityInfo;
 import android.content.pm.PackageManager;
@@ -34,19 +37,20 @@ import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.content.res.XmlResourceParser;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.database.sqlite.SQLiteStatement;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Bundle;
 import android.provider.Settings;
 import android.text.TextUtils;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.util.SparseArray;
 import android.util.Xml;
 
 import com.launcherjellybean.android.R;
@@ -58,7 +62,9 @@ import org.xmlpull.v1.XmlPullParserException;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class LauncherProvider extends ContentProvider {
     private static final String TAG = "Launcher.LauncherProvider";
@@ -66,12 +72,16 @@ public class LauncherProvider extends ContentProvider {
 
     private static final String DATABASE_NAME = "launcher.db";
 
-    private static final int DATABASE_VERSION = 12;
+    private static final int DATABASE_VERSION = 15;
 
     static final String AUTHORITY = "com.launcherjellybean.android.settings";
 
     static final String TABLE_FAVORITES = "favorites";
+    static final String TABLE_ICONS = "icons";
     static final String PARAMETER_NOTIFY = "notify";
+
+    // Writes that touch more rows than this notify the whole table instead of each row
+    private static final int MAX_ROW_NOTIFICATIONS = 16;
     static final String DB_CREATED_BUT_DEFAULT_WORKSPACE_NOT_LOADED =
             "DB_CREATED_BUT_DEFAULT_WORKSPACE_NOT_LOADED";
 
@@ -86,8 +96,57 @@ public class LauncherProvider extends ContentProvider {
     static final Uri CONTENT_APPWIDGET_RESET_URI =
             Uri.parse("content://" + AUTHORITY + "/appWidgetReset");
 
+    // The columns that moving and resizing items write, see updateCoordinates()
+    private static final String[] COORDINATE_COLUMNS = {
+        Favorites.CONTAINER, Favorites.SCREEN, Favorites.CELLX, Favorites.CELLY,
+        Favorites.SPANX, Favorites.SPANY
+    };
+
     private DatabaseHelper mOpenHelper;
 
+    // Compiled statements of the hot write paths, made on first use. An "UPDATE favorites SET
+    // ... WHERE _id=?" for each set of COORDINATE_COLUMNS (one bit per column) and a delete
+    // by id. Guarded by mStatementLock, which is only taken inside a transaction.
+    private final Object mStatementLock = new Object();
+    private final SparseArray<SQLiteStatement> mUpdateCoordinates =
+            new SparseArray<SQLiteStatement>();
+    private SQLiteStatement mDeleteById;
+
+    // The notifications of the batch that is being applied on each thread, see applyBatch()
+    private final ThreadLocal<BatchNotifications> mBatchNotifications =
+            new ThreadLocal<BatchNotifications>();
+
+    /**
+     * 批量操作期间积累的变更通知.
+     * The rows a batch changed, by table. A table whose changed rows are unknown or too many
+     * maps to null and gets notified as a whole.
+     */
+    private static class BatchNotifications {
+        final HashMap<String, LongHashMap<Boolean>> rows =
+                new HashMap<String, LongHashMap<Boolean>>();
+
+        void add(String table, long[] ids) {
+            LongHashMap<Boolean> tableRows = rows.get(table);
+            if (tableRows == null && rows.containsKey(table)) {
+                return;
+            }
+            if (ids == null) {
+                rows.put(table, null);
+                return;
+            }
+            if (tableRows == null) {
+                tableRows = new LongHashMap<Boolean>();
+                rows.put(table, tableRows);
+            }
+            for (long id : ids) {
+                tableRows.put(id, Boolean.TRUE);
+            }
+            if (tableRows.size() > MAX_ROW_NOTIFICATIONS) {
+                rows.put(table, null);
+            }
+        }
+    }
+
     @Override
     public boolean onCreate() {
         mOpenHelper = new DatabaseHelper(getContext());
@@ -125,9 +184,86 @@ public class LauncherProvider extends ContentProvider {
         if (!values.containsKey(LauncherSettings.Favorites._ID)) {
             throw new RuntimeException("Error: attempting to add item without specifying an id");
         }
+        if (TABLE_FAVORITES.equals(table) && values.containsKey(LauncherSettings.Favorites.ICON)) {
+            return insertWithIcon(db, nullColumnHack, values);
+        }
         return db.insert(table, nullColumnHack, values);
     }
 
+    /**
+     * Inserts a favorite along with its icon, which goes into the icons table.
+     */
+    private static long insertWithIcon(SQLiteDatabase db, String nullColumnHack,
+            ContentValues values) {
+        final ContentValues favorite = new ContentValues(values);
+        favorite.remove(LauncherSettings.Favorites.ICON);
+        db.beginTransaction();
+        try {
+            final long rowId = db.insert(TABLE_FAVORITES, nullColumnHack, favorite);
+            if (rowId < 0) {
+                return rowId;
+            }
+            final ContentValues icon = new ContentValues(2);
+            icon.put(LauncherSettings.Favorites._ID,
+                    values.getAsLong(LauncherSettings.Favorites._ID));
+            icon.put(LauncherSettings.Favorites.ICON,
+                    values.getAsByteArray(LauncherSettings.Favorites.ICON));
+            if (db.replace(TABLE_ICONS, null, icon) < 0) {
+                return -1;
+            }
+            db.setTransactionSuccessful();
+            return rowId;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Updates favorites along with their icon, which goes into the icons table. A null icon
+     * deletes the icons rows. Returns the number of favorites that matched.
+     */
+    private static int updateWithIcon(SQLiteDatabase db, ContentValues values,
+            SqlArguments args) {
+        final ContentValues favorite = new ContentValues(values);
+        favorite.remove(LauncherSettings.Favorites.ICON);
+        final byte[] icon = values.getAsByteArray(LauncherSettings.Favorites.ICON);
+        final String where = TextUtils.isEmpty(args.where) ? "" : " WHERE " + args.where;
+        db.beginTransaction();
+        try {
+            final SQLiteStatement write;
+            int index = 1;
+            if (icon != null) {
+                write = db.compileStatement("INSERT OR REPLACE INTO " + TABLE_ICONS
+                        + " (_id, icon) SELECT _id, ? FROM " + TABLE_FAVORITES + where);
+                write.bindBlob(index++, icon);
+            } else {
+                write = db.compileStatement("DELETE FROM " + TABLE_ICONS
+                        + " WHERE _id IN (SELECT _id FROM " + TABLE_FAVORITES + where + ")");
+            }
+            try {
+                if (args.args != null) {
+                    for (int i = 0; i < args.args.length; i++) {
+                        write.bindString(index++, args.args[i]);
+                    }
+                }
+                write.executeUpdateDelete();
+            } finally {
+                write.close();
+            }
+            final int count;
+            if (favorite.size() > 0) {
+                count = db.update(TABLE_FAVORITES, favorite, args.where, args.args);
+            } else {
+                count = (int) DatabaseUtils.queryNumEntries(db, TABLE_FAVORITES, args.where,
+                        args.args);
+            }
+            db.setTransactionSuccessful();
+            return count;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
     private static void deleteId(SQLiteDatabase db, long id) {
         Uri uri = LauncherSettings.Favorites.getContentUri(id, false);
         SqlArguments args = new SqlArguments(uri, null, null);
@@ -142,10 +278,9 @@ public class LauncherProvider extends ContentProvider {
         final long rowId = dbInsertAndCheck(mOpenHelper, db, args.table, null, initialValues);
         if (rowId <= 0) return null;
 
-        uri = ContentUris.withAppendedId(uri, rowId);
-        sendNotify(uri);
+        sendNotify(uri, args.table, new long[] { rowId });
 
-        return uri;
+        return ContentUris.withAppendedId(uri, rowId);
     }
 
     @Override
@@ -153,11 +288,13 @@ public class LauncherProvider extends ContentProvider {
         SqlArguments args = new SqlArguments(uri);
 
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int numValues = values.length;
+        long[] ids = new long[numValues];
         db.beginTransaction();
         try {
-            int numValues = values.length;
             for (int i = 0; i < numValues; i++) {
-                if (dbInsertAndCheck(mOpenHelper, db, args.table, null, values[i]) < 0) {
+                ids[i] = dbInsertAndCheck(mOpenHelper, db, args.table, null, values[i]);
+                if (ids[i] < 0) {
                     return 0;
                 }
             }
@@ -166,17 +303,64 @@ public class LauncherProvider extends ContentProvider {
             db.endTransaction();
         }
 
-        sendNotify(uri);
+        sendNotify(uri, args.table, ids);
         return values.length;
     }
 
+    /**
+     * Applies the operations in a single transaction, instead of one for each operation. The
+     * change notifications of the operations are held back and sent once the transaction has
+     * committed, coalesced like those of a single write: the changed rows if there are only a
+     * few of them, the whole table otherwise. Nothing is notified if the batch fails.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final boolean outermost = mBatchNotifications.get() == null;
+        if (outermost) {
+            mBatchNotifications.set(new BatchNotifications());
+        }
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        boolean success = false;
+        try {
+            ContentProviderResult[] results;
+            db.beginTransaction();
+            try {
+                results = super.applyBatch(operations);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            success = true;
+            return results;
+        } finally {
+            if (outermost) {
+                final BatchNotifications batch = mBatchNotifications.get();
+                mBatchNotifications.remove();
+                if (success) {
+                    for (Map.Entry<String, LongHashMap<Boolean>> entry : batch.rows.entrySet()) {
+                        final LongHashMap<Boolean> ids = entry.getValue();
+                        sendNotify(Uri.parse("content://" + AUTHORITY + "/" + entry.getKey()),
+                                entry.getKey(), ids != null ? ids.keys() : null);
+                    }
+                }
+            }
+        }
+    }
+
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
         SqlArguments args = new SqlArguments(uri, selection, selectionArgs);
 
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-        int count = db.delete(args.table, args.where, args.args);
-        if (count > 0) sendNotify(uri);
+        long[] ids = getRowIds(uri);
+        final int count;
+        if (TABLE_FAVORITES.equals(args.table) && uri.getPathSegments().size() == 2) {
+            count = deleteById(db, ContentUris.parseId(uri));
+        } else {
+            count = db.delete(args.table, args.where, args.args);
+        }
+        if (count > 0) sendNotify(uri, args.table, ids);
 
         return count;
     }
@@ -186,19 +370,143 @@ public class LauncherProvider extends ContentProvider {
         SqlArguments args = new SqlArguments(uri, selection, selectionArgs);
 
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-        int count = db.update(args.table, values, args.where, args.args);
-        if (count > 0) sendNotify(uri);
+        long[] ids = getRowIds(uri);
+        int count = -1;
+        if (TABLE_FAVORITES.equals(args.table)
+                && values.containsKey(LauncherSettings.Favorites.ICON)) {
+            count = updateWithIcon(db, values, args);
+        } else if (TABLE_FAVORITES.equals(args.table) && uri.getPathSegments().size() == 2) {
+            count = updateCoordinates(db, ContentUris.parseId(uri), values);
+        }
+        if (count < 0) {
+            count = db.update(args.table, values, args.where, args.args);
+        }
+        if (count > 0) sendNotify(uri, args.table, ids);
 
         return count;
     }
 
-    private void sendNotify(Uri uri) {
+    /**
+     * Writes values that hold nothing but coordinates (a move or a resize) to the favorite
+     * with the given id, through a compiled statement. Returns -1 without writing anything if
+     * the values hold other columns too.
+     */
+    private int updateCoordinates(SQLiteDatabase db, long id, ContentValues values) {
+        int columns = 0;
+        for (int i = 0; i < COORDINATE_COLUMNS.length; i++) {
+            if (values.containsKey(COORDINATE_COLUMNS[i])) {
+                columns |= 1 << i;
+            }
+        }
+        if (columns == 0 || Integer.bitCount(columns) != values.size()) {
+            return -1;
+        }
+
+        // Taking the lock while holding the database keeps a thread that waits for the
+        // database from holding up one that is in a transaction and wants the lock
+        db.beginTransaction();
+        try {
+            final int count;
+            synchronized (mStatementLock) {
+                SQLiteStatement update = mUpdateCoordinates.get(columns);
+                if (update == null) {
+                    final StringBuilder sql = new StringBuilder("UPDATE ")
+                            .append(TABLE_FAVORITES).append(" SET ");
+                    for (int i = 0; i < COORDINATE_COLUMNS.length; i++) {
+                        if ((columns & (1 << i)) != 0) {
+                            sql.append(COORDINATE_COLUMNS[i]).append("=?,");
+                        }
+                    }
+                    sql.setLength(sql.length() - 1);
+                    sql.append(" WHERE _id=?");
+                    update = db.compileStatement(sql.toString());
+                    mUpdateCoordinates.put(columns, update);
+                }
+                int index = 1;
+                for (int i = 0; i < COORDINATE_COLUMNS.length; i++) {
+                    if ((columns & (1 << i)) != 0) {
+                        final Long value = values.getAsLong(COORDINATE_COLUMNS[i]);
+                        if (value != null) {
+                            update.bindLong(index, value);
+                        } else {
+                            update.bindNull(index);
+                        }
+                        index++;
+                    }
+                }
+                update.bindLong(index, id);
+                count = update.executeUpdateDelete();
+            }
+            db.setTransactionSuccessful();
+            return count;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Deletes the favorite with the given id, and its icon, through a compiled statement.
+     */
+    private int deleteById(SQLiteDatabase db, long id) {
+        db.beginTransaction();
+        try {
+            final int count;
+            synchronized (mStatementLock) {
+                if (mDeleteById == null) {
+                    mDeleteById = db.compileStatement("DELETE FROM " + TABLE_FAVORITES
+                            + " WHERE _id=?");
+                }
+                mDeleteById.bindLong(1, id);
+                count = mDeleteById.executeUpdateDelete();
+            }
+            db.setTransactionSuccessful();
+            return count;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static boolean shouldNotify(Uri uri) {
         String notify = uri.getQueryParameter(PARAMETER_NOTIFY);
-        if (notify == null || "true".equals(notify)) {
-            getContext().getContentResolver().notifyChange(uri, null);
+        return notify == null || "true".equals(notify);
+    }
+
+    /**
+     * Notifies the row uri of each of the changed rows, so that LauncherModel only has to
+     * re-read those. Falls back to notifying the uri that was written to when the rows are
+     * unknown or there are too many of them. Within applyBatch() the rows are only collected.
+     */
+    private void sendNotify(Uri uri, String table, long[] ids) {
+        if (!shouldNotify(uri)) {
+            return;
+        }
+        final BatchNotifications batch = mBatchNotifications.get();
+        if (batch != null) {
+            batch.add(table, ids);
+            return;
+        }
+        final ContentResolver resolver = getContext().getContentResolver();
+        if (ids == null || ids.length > MAX_ROW_NOTIFICATIONS) {
+            resolver.notifyChange(uri, null);
+            return;
+        }
+        final Uri tableUri = Uri.parse("content://" + AUTHORITY + "/" + table);
+        for (long id : ids) {
+            resolver.notifyChange(ContentUris.withAppendedId(tableUri, id), null);
         }
     }
 
+    /**
+     * Returns the id of the row the uri names, or null for a write by selection, which is
+     * notified as the whole table rather than paying for a query to find its rows.
+     */
+    private static long[] getRowIds(Uri uri) {
+        if (uri.getPathSegments().size() == 2) {
+            return new long[] { ContentUris.parseId(uri) };
+        }
+        return null;
+    }
+
     public long generateNewId() {
         return mOpenHelper.generateNewId();
     }
@@ -233,6 +541,9 @@ public class LauncherProvider extends ContentProvider {
             super(context, DATABASE_NAME, null, DATABASE_VERSION);
             mContext = context;
             mAppWidgetHost = new AppWidgetHost(context, Launcher.APPWIDGET_HOST_ID);
+            // The loader reads the whole table while the UI moves items around, with
+            // write-ahead logging neither has to wait for the other
+            setWriteAheadLoggingEnabled(true);
 
             // In the case where neither onCreate nor onUpgrade gets called, we read the maxId from
             // the DB here
@@ -258,6 +569,27 @@ public class LauncherProvider extends ContentProvider {
 
             mMaxId = 1;
 
+            createFavoritesTables(db);
+            createFavoritesIndexes(db);
+
+            // Database was just created, so wipe any previous widgets
+            if (mAppWidgetHost != null) {
+                mAppWidgetHost.deleteHost();
+                sendAppWidgetResetNotify();
+            }
+
+            if (!convertDatabase(db)) {
+                // Set a shared pref so that we know we need to load the default workspace later
+                setFlagToLoadDefaultWorkspaceLater();
+            }
+        }
+
+        /**
+         * Creates the favorites table and the icons table next to it. Icons are kept apart so
+         * that reading the favorites doesn't drag every icon through the cursor window; they
+         * are deleted along with their favorite.
+         */
+        private static void createFavoritesTables(SQLiteDatabase db) {
             db.execSQL("CREATE TABLE favorites (" +
                     "_id INTEGER PRIMARY KEY," +
                     "title TEXT," +
@@ -274,21 +606,28 @@ public class LauncherProvider extends ContentProvider {
                     "iconType INTEGER," +
                     "iconPackage TEXT," +
                     "iconResource TEXT," +
-                    "icon BLOB," +
+                    "iconHash INTEGER NOT NULL DEFAULT 0," +
                     "uri TEXT," +
                     "displayMode INTEGER" +
                     ");");
+            db.execSQL("CREATE TABLE icons (" +
+                    "_id INTEGER PRIMARY KEY," +
+                    "icon BLOB" +
+                    ");");
+            db.execSQL("CREATE TRIGGER favorites_delete_icon AFTER DELETE ON favorites " +
+                    "BEGIN DELETE FROM icons WHERE _id=old._id; END;");
+        }
 
-            // Database was just created, so wipe any previous widgets
-            if (mAppWidgetHost != null) {
-                mAppWidgetHost.deleteHost();
-                sendAppWidgetResetNotify();
-            }
-
-            if (!convertDatabase(db)) {
-                // Set a shared pref so that we know we need to load the default workspace later
-                setFlagToLoadDefaultWorkspaceLater();
-            }
+        /**
+         * Creates the indexes of the favorites table: the loader, folders and the workspace
+         * select by container and screen, widgets are looked up by appWidgetId.
+         */
+        private static void createFavoritesIndexes(SQLiteDatabase db) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS favorites_container ON favorites " +
+                    "(container);");
+            db.execSQL("CREATE INDEX IF NOT EXISTS favorites_screen ON favorites (screen);");
+            db.execSQL("CREATE INDEX IF NOT EXISTS favorites_appWidgetId ON favorites " +
+                    "(appWidgetId);");
         }
 
         private void setFlagToLoadDefaultWorkspaceLater() {
@@ -488,9 +827,70 @@ public class LauncherProvider extends ContentProvider {
                 version = 12;
             }
 
+            if (version < 13) {
+                // upgrade 12 -> 13 added iconHash column, the saved icons get their hash the
+                // next time the loader checks them
+                db.beginTransaction();
+                try {
+                    db.execSQL("ALTER TABLE favorites " +
+                        "ADD COLUMN iconHash INTEGER NOT NULL DEFAULT 0;");
+                    db.setTransactionSuccessful();
+                    version = 13;
+                } catch (SQLException ex) {
+                    // Old version remains, which means we wipe old data
+                    Log.e(TAG, ex.getMessage(), ex);
+                } finally {
+                    db.endTransaction();
+                }
+            }
+
+            if (version < 14) {
+                // upgrade 13 -> 14 moved the icons out of the favorites table
+                db.beginTransaction();
+                try {
+                    // Icons that aren't in the current format lose their hash, so the loader
+                    // saves them again, see LauncherModel.queueIconToBeChecked()
+                    db.execSQL("UPDATE favorites SET iconHash=0 WHERE icon IS NOT NULL " +
+                        "AND substr(icon, 1, 4) != " + IconCodec.SQL_HEADER + ";");
+                    db.execSQL("ALTER TABLE favorites RENAME TO favorites_old;");
+                    createFavoritesTables(db);
+                    final String columns = "_id, title, intent, container, screen, cellX, " +
+                        "cellY, spanX, spanY, itemType, appWidgetId, isShortcut, iconType, " +
+                        "iconPackage, iconResource, iconHash, uri, displayMode";
+                    db.execSQL("INSERT INTO favorites (" + columns + ") " +
+                        "SELECT " + columns + " FROM favorites_old;");
+                    db.execSQL("INSERT INTO icons (_id, icon) " +
+                        "SELECT _id, icon FROM favorites_old WHERE icon IS NOT NULL;");
+                    db.execSQL("DROP TABLE favorites_old;");
+                    db.setTransactionSuccessful();
+                    version = 14;
+                } catch (SQLException ex) {
+                    // Old version remains, which means we wipe old data
+                    Log.e(TAG, ex.getMessage(), ex);
+                } finally {
+                    db.endTransaction();
+                }
+            }
+
+            if (version < 15) {
+                // upgrade 14 -> 15 added indexes on container, screen and appWidgetId
+                db.beginTransaction();
+                try {
+                    createFavoritesIndexes(db);
+                    db.setTransactionSuccessful();
+                    version = 15;
+                } catch (SQLException ex) {
+                    // Old version remains, which means we wipe old data
+                    Log.e(TAG, ex.getMessage(), ex);
+                } finally {
+                    db.endTransaction();
+                }
+            }
+
             if (version != DATABASE_VERSION) {
                 Log.w(TAG, "Destroying all old data.");
                 db.execSQL("DROP TABLE IF EXISTS " + TABLE_FAVORITES);
+                db.execSQL("DROP TABLE IF EXISTS " + TABLE_ICONS);
                 onCreate(db);
             }
         }
@@ -601,8 +1001,7 @@ public class LauncherProvider extends ContentProvider {
                     long id = c.getLong(idIndex);
                     byte[] data = c.getBlob(iconIndex);
                     try {
-                        Bitmap bitmap = Utilities.resampleIconBitmap(
-                                BitmapFactory.decodeByteArray(data, 0, data.length),
+                        Bitmap bitmap = Utilities.resampleIconBitmap(IconCodec.decode(data),
                                 mContext);
                         if (bitmap != null) {
                             update.bindLong(1, id);
@@ -84,10 +84,18 @@ class LauncherSettings {
         static final String ICON_RESOURCE = "iconResource";
 
         /**
-         * The custom icon bitmap, if icon type is ICON_TYPE_BITMAP.
+         * The custom icon bitmap, if icon type is ICON_TYPE_BITMAP. Favorites keep it in a
+         * table of their own, see {@link Favorites#getIconUri(long)}.
          * <P>Type: BLOB</P>
          */
         static final String ICON = "icon";
+
+        /**
+         * Utilities.hashIconPixels() of the icon the ICON bitmap was made from, or 0 if it is
+         * not known.
+         * <P>Type: INTEGER (long)</P>
+         */
+        static final String ICON_HASH = "iconHash";
     }
 
     /**
@@ -123,6 +131,19 @@ class LauncherSettings {
                     LauncherProvider.PARAMETER_NOTIFY + "=" + notify);
         }
 
+        /**
+         * The content:// style URL for the saved icon of a given row, which is not part of
+         * the favorites table. Writing {@link #ICON} to the favorites table stores it there.
+         *
+         * @param id The row id.
+         *
+         * @return The content URL of the icon, with its ICON column.
+         */
+        static Uri getIconUri(long id) {
+            return Uri.parse("content://" + LauncherProvider.AUTHORITY +
+                    "/" + LauncherProvider.TABLE_ICONS + "/" + id);
+        }
+
         /**
          * The container holding the favorite
          * <P>Type: INTEGER</P>
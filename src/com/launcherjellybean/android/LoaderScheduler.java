@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.launcherjellybean.android;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * LauncherModel的后台线程,按优先级通道执行任务.
+ * Runs LauncherModel's background work on a single thread, like a Handler, but keeps a queue
+ * per priority lane and always runs the oldest task of the most urgent lane next. There is
+ * still only one thread, so the model keeps being touched from one thread only, and tasks in
+ * the same lane run in the order they were posted.
+ *
+ * Long running tasks (the loader) can let the interactive lane cut in at points where the
+ * model is consistent by calling {@link #runInteractiveTasks()}.
+ */
+class LoaderScheduler {
+    /** Database writes caused by the user, e.g. dropping an item. */
+    static final int LANE_INTERACTIVE = 0;
+    /** Loading and binding the workspace. */
+    static final int LANE_WORKSPACE = 1;
+    /** Loading the all apps list and applying package changes to it. */
+    static final int LANE_ALL_APPS = 2;
+    /** Anything that can wait, e.g. saving the workspace snapshot. */
+    static final int LANE_BACKGROUND = 3;
+    private static final int LANE_COUNT = 4;
+
+    private static final String[] LANE_NAMES = {
+        "interactive", "workspace", "all apps", "background"
+    };
+
+    // Runs the next task, one message is sent for each queued task
+    private static final int MSG_RUN = 1;
+    // A delayed task is due and gets queued in its lane (arg1)
+    private static final int MSG_ENQUEUE = 2;
+
+    private static class Task {
+        final Runnable runnable;
+        final long enqueueTime;
+
+        Task(Runnable runnable) {
+            this.runnable = runnable;
+            enqueueTime = SystemClock.uptimeMillis();
+        }
+    }
+
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final ArrayList<LinkedList<Task>> mLanes = new ArrayList<LinkedList<Task>>(LANE_COUNT);
+
+    // Metrics, per lane. Guarded by this.
+    private final int[] mMaxDepth = new int[LANE_COUNT];
+    private final long[] mRunCount = new long[LANE_COUNT];
+    private final long[] mTotalWait = new long[LANE_COUNT];
+    private final long[] mMaxWait = new long[LANE_COUNT];
+
+    LoaderScheduler(String name) {
+        for (int i = 0; i < LANE_COUNT; i++) {
+            mLanes.add(new LinkedList<Task>());
+        }
+        mThread = new HandlerThread(name);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                switch (msg.what) {
+                    case MSG_RUN:
+                        runNext(LANE_COUNT - 1);
+                        break;
+                    case MSG_ENQUEUE:
+                        LoaderScheduler.this.post(msg.arg1, (Runnable) msg.obj);
+                        break;
+                }
+            }
+        };
+    }
+
+    HandlerThread getThread() {
+        return mThread;
+    }
+
+    /** Returns whether the caller is running on the scheduler's thread. */
+    boolean isCurrentThread() {
+        return mThread.getThreadId() == Process.myTid();
+    }
+
+    void post(int lane, Runnable r) {
+        synchronized (this) {
+            final LinkedList<Task> queue = mLanes.get(lane);
+            queue.add(new Task(r));
+            if (queue.size() > mMaxDepth[lane]) {
+                mMaxDepth[lane] = queue.size();
+            }
+        }
+        mHandler.sendEmptyMessage(MSG_RUN);
+    }
+
+    void postDelayed(int lane, Runnable r, long delayMillis) {
+        mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_ENQUEUE, lane, 0, r), delayMillis);
+    }
+
+    /** Removes all the queued and delayed posts of r. */
+    void removeCallbacks(Runnable r) {
+        mHandler.removeMessages(MSG_ENQUEUE, r);
+        synchronized (this) {
+            for (LinkedList<Task> queue : mLanes) {
+                Iterator<Task> iter = queue.iterator();
+                while (iter.hasNext()) {
+                    if (iter.next().runnable == r) {
+                        iter.remove();
+                    }
+                }
+            }
+        }
+        // The MSG_RUN messages of removed tasks find nothing to do
+    }
+
+    /**
+     * Runs the tasks of the interactive lane right away. Only call this on the scheduler's
+     * thread, from a point where the model is consistent.
+     */
+    void runInteractiveTasks() {
+        while (runNext(LANE_INTERACTIVE)) {
+            // Keep going
+        }
+    }
+
+    /** Runs the oldest task of the most urgent lane, up to maxLane. */
+    private boolean runNext(int maxLane) {
+        Task task = null;
+        synchronized (this) {
+            for (int lane = 0; lane <= maxLane && task == null; lane++) {
+                task = mLanes.get(lane).poll();
+                if (task != null) {
+                    final long wait = SystemClock.uptimeMillis() - task.enqueueTime;
+                    mRunCount[lane]++;
+                    mTotalWait[lane] += wait;
+                    if (wait > mMaxWait[lane]) {
+                        mMaxWait[lane] = wait;
+                    }
+                }
+            }
+        }
+        if (task == null) {
+            return false;
+        }
+        task.runnable.run();
+        return true;
+    }
+
+    synchronized void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "LoaderScheduler " + mThread.getName() + ":");
+        for (int lane = 0; lane < LANE_COUNT; lane++) {
+            final long runs = mRunCount[lane];
+            writer.println(prefix + "  " + LANE_NAMES[lane]
+                    + ": depth=" + mLanes.get(lane).size()
+                    + " maxDepth=" + mMaxDepth[lane]
+                    + " runs=" + runs
+                    + " avgWaitMs=" + (runs > 0 ? mTotalWait[lane] / runs : 0)
+                    + " maxWaitMs=" + mMaxWait[lane]);
+        }
+    }
+}
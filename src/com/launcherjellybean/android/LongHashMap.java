@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.launcherjellybean.android;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * 以long为键的哈希表,用来按id索引ItemInfo.
+ * A map from long keys (item ids) to objects that doesn't box its keys. It uses open
+ * addressing with linear probing, so lookups, inserts and removals don't allocate.
+ * Null values are not supported: putting null removes the key. Not thread safe.
+ */
+class LongHashMap<V> {
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] mKeys;
+    private Object[] mValues;
+    private int mSize;
+    // Capacity is always 1 << (64 - mShift)
+    private int mShift;
+
+    LongHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    LongHashMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 / 4 < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    LongHashMap(LongHashMap<? extends V> other) {
+        this(other.mSize);
+        putAll(other);
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new long[capacity];
+        mValues = new Object[capacity];
+        mShift = 64 - Integer.numberOfTrailingZeros(capacity);
+    }
+
+    private int slot(long key) {
+        // Fibonacci hashing, ids are mostly sequential so spread them over the whole table
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> mShift);
+    }
+
+    /** Returns the index of key in the table, or of the empty slot where it would go. */
+    private int indexOf(long key) {
+        final int mask = mKeys.length - 1;
+        int i = slot(key);
+        while (mValues[i] != null && mKeys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    boolean containsKey(long key) {
+        return mValues[indexOf(key)] != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        return (V) mValues[indexOf(key)];
+    }
+
+    @SuppressWarnings("unchecked")
+    V put(long key, V value) {
+        if (value == null) {
+            return remove(key);
+        }
+        int i = indexOf(key);
+        final V old = (V) mValues[i];
+        if (old == null) {
+            if ((mSize + 1) > mKeys.length * 3 / 4) {
+                rehash(mKeys.length << 1);
+                i = indexOf(key);
+            }
+            mKeys[i] = key;
+            mSize++;
+        }
+        mValues[i] = value;
+        return old;
+    }
+
+    void putAll(LongHashMap<? extends V> other) {
+        final long[] keys = other.mKeys;
+        final Object[] values = other.mValues;
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != null) {
+                @SuppressWarnings("unchecked")
+                final V value = (V) values[i];
+                put(keys[i], value);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    V remove(long key) {
+        int i = indexOf(key);
+        final V old = (V) mValues[i];
+        if (old == null) {
+            return null;
+        }
+        mValues[i] = null;
+        mSize--;
+
+        // Shift back the entries that probed past the removed one so lookups still find them
+        final int mask = mKeys.length - 1;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (mValues[j] == null) {
+                break;
+            }
+            final int home = slot(mKeys[j]);
+            // Move j into the hole unless its home slot lies cyclically in (i, j]
+            final boolean stays = (i <= j) ? (i < home && home <= j) : (i < home || home <= j);
+            if (!stays) {
+                mKeys[i] = mKeys[j];
+                mValues[i] = mValues[j];
+                mValues[j] = null;
+                i = j;
+            }
+        }
+        return old;
+    }
+
+    void clear() {
+        if (mSize > 0) {
+            Arrays.fill(mValues, null);
+            mSize = 0;
+        }
+    }
+
+    /** Returns a copy of the keys, in no particular order. */
+    long[] keys() {
+        final long[] keys = new long[mSize];
+        int n = 0;
+        for (int i = 0; i < mKeys.length; i++) {
+            if (mValues[i] != null) {
+                keys[n++] = mKeys[i];
+            }
+        }
+        return keys;
+    }
+
+    /** Returns whether both maps have the same keys, mapped to the very same objects. */
+    boolean sameEntries(LongHashMap<?> other) {
+        if (other.mSize != mSize) {
+            return false;
+        }
+        for (int i = 0; i < mKeys.length; i++) {
+            if (mValues[i] != null && other.get(mKeys[i]) != mValues[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash(int capacity) {
+        final long[] keys = mKeys;
+        final Object[] values = mValues;
+        allocate(capacity);
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != null) {
+                final int j = indexOf(keys[i]);
+                mKeys[j] = keys[i];
+                mValues[j] = values[i];
+            }
+        }
+    }
+
+    /**
+     * A read only view of the values, in no particular order. Like the map itself it must not
+     * be used while the map is being changed.
+     */
+    Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new Iterator<V>() {
+                    private int mNext = advance(0);
+
+                    private int advance(int from) {
+                        while (from < mValues.length && mValues[from] == null) {
+                            from++;
+                        }
+                        return from;
+                    }
+
+                    public boolean hasNext() {
+                        return mNext < mValues.length;
+                    }
+
+                    @SuppressWarnings("unchecked")
+                    public V next() {
+                        if (mNext >= mValues.length) {
+                            throw new NoSuchElementException();
+                        }
+                        final V value = (V) mValues[mNext];
+                        mNext = advance(mNext + 1);
+                        return value;
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return mSize;
+            }
+        };
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.launcherjellybean.android;
+
+/**
+ * 简单的LZ77压缩,用于数据库中的图标.
+ * The compression behind {@link IconCodec}: a simple LZ77 scheme with the sequence layout of
+ * LZ4, on plain byte arrays. It doesn't depend on the framework, so it is tested on the host.
+ */
+final class LzCodec {
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 0xffff;
+    private static final int HASH_BITS = 12;
+
+    private LzCodec() {
+    }
+
+    /** Returns the most bytes compress() can write for length bytes of input. */
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compresses src into dst from offset on and returns the end of the output. Each sequence
+     * is a token (literal count << 4 | match length - MIN_MATCH, 15 meaning more length
+     * bytes follow), the literals, and then the little endian offset of the match. The last
+     * sequence has literals only. dst needs room for {@link #maxCompressedLength} bytes.
+     */
+    static int compress(byte[] src, byte[] dst, int offset) {
+        final int length = src.length;
+        // Position + 1 of the last place each hashed 4 byte sequence was seen, 0 for none
+        final int[] table = new int[1 << HASH_BITS];
+        int op = offset;
+        int anchor = 0;
+        int ip = 0;
+        while (ip <= length - MIN_MATCH) {
+            final int sequence = readInt(src, ip);
+            final int hash = (sequence * 0x9E3779B1) >>> (32 - HASH_BITS);
+            final int ref = table[hash] - 1;
+            table[hash] = ip + 1;
+            if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                ip++;
+                continue;
+            }
+            int match = MIN_MATCH;
+            while (ip + match < length && src[ref + match] == src[ip + match]) {
+                match++;
+            }
+
+            final int token = op;
+            op = writeLiterals(src, anchor, ip - anchor, dst, op + 1);
+            dst[op++] = (byte) (ip - ref);
+            dst[op++] = (byte) ((ip - ref) >>> 8);
+            final int extra = match - MIN_MATCH;
+            if (extra >= 15) {
+                op = writeLength(dst, op, extra - 15);
+            }
+            dst[token] = (byte) (tokenLength(ip - anchor) << 4 | tokenLength(extra));
+
+            ip += match;
+            anchor = ip;
+        }
+        dst[op] = (byte) (tokenLength(length - anchor) << 4);
+        return writeLiterals(src, anchor, length - anchor, dst, op + 1);
+    }
+
+    private static int writeLiterals(byte[] src, int start, int count, byte[] dst, int op) {
+        if (count >= 15) {
+            op = writeLength(dst, op, count - 15);
+        }
+        System.arraycopy(src, start, dst, op, count);
+        return op + count;
+    }
+
+    private static int writeLength(byte[] dst, int op, int length) {
+        while (length >= 255) {
+            dst[op++] = (byte) 255;
+            length -= 255;
+        }
+        dst[op++] = (byte) length;
+        return op;
+    }
+
+    private static int tokenLength(int length) {
+        return length < 15 ? length : 15;
+    }
+
+    private static int readInt(byte[] data, int i) {
+        return (data[i] & 0xff) | (data[i + 1] & 0xff) << 8
+                | (data[i + 2] & 0xff) << 16 | (data[i + 3] & 0xff) << 24;
+    }
+
+    /**
+     * Undoes compress() on src from ip on, filling all of dst. Returns false if src doesn't
+     * hold exactly that many bytes.
+     */
+    static boolean decompress(byte[] src, int ip, byte[] dst) {
+        final int end = dst.length;
+        int op = 0;
+        while (ip < src.length) {
+            final int token = src[ip++] & 0xff;
+            int literals = token >>> 4;
+            if (literals == 15) {
+                int b;
+                do {
+                    if (ip >= src.length) {
+                        return false;
+                    }
+                    b = src[ip++] & 0xff;
+                    literals += b;
+                } while (b == 255);
+            }
+            if (literals > src.length - ip || literals > end - op) {
+                return false;
+            }
+            System.arraycopy(src, ip, dst, op, literals);
+            ip += literals;
+            op += literals;
+            if (op == end) {
+                // The last sequence
+                return ip == src.length;
+            }
+
+            if (src.length - ip < 2) {
+                return false;
+            }
+            final int offset = (src[ip++] & 0xff) | (src[ip++] & 0xff) << 8;
+            int match = token & 0xf;
+            if (match == 15) {
+                int b;
+                do {
+                    if (ip >= src.length) {
+                        return false;
+                    }
+                    b = src[ip++] & 0xff;
+                    match += b;
+                } while (b == 255);
+            }
+            match += MIN_MATCH;
+            if (offset == 0 || offset > op || match > end - op) {
+                return false;
+            }
+            int ref = op - offset;
+            if (offset >= match) {
+                System.arraycopy(dst, ref, dst, op, match);
+                op += match;
+            } else {
+                // Overlapping, e.g. a run of transparent pixels
+                for (int i = 0; i < match; i++) {
+                    dst[op++] = dst[ref++];
+                }
+            }
+        }
+        return false;
+    }
+}
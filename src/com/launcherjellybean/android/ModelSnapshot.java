@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.launcherjellybean.android;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 桌面数据模型的不可变快照,可以在任意线程读取.
+ * A copy of the workspace lists of LauncherModel (sWorkspaceItems, sAppWidgets and sFolders),
+ * which only the worker thread may touch. The worker publishes a new snapshot after
+ * the lists change and any thread can read the last one without locking, see
+ * LauncherModel.getModelSnapshot(). Unlike {@link WorkspaceSnapshot} it is never written to
+ * disk.
+ *
+ * A new snapshot shares every collection that didn't change with the previous one, so moving
+ * or adding one item only copies the list it ended up in. Only these top level collections
+ * are immutable: the ItemInfos in them are the model's own objects, as they have always been
+ * for the binds. In particular the contents of a FolderInfo are the list the bound folder
+ * shows and the UI thread changes, so only read them on the main thread.
+ */
+final class ModelSnapshot {
+    static final ModelSnapshot EMPTY = new ModelSnapshot(0, false,
+            Collections.<ItemInfo>emptyList(),
+            Collections.<LauncherAppWidgetInfo>emptyList(),
+            new LongHashMap<FolderInfo>(0));
+
+    /** Goes up by one with every snapshot that differs from the one before. */
+    final int version;
+    /** Whether the whole workspace has been loaded, rather than only some of its screens. */
+    final boolean complete;
+    /** The folders and shortcuts on the desktop and in the hotseat, read only. */
+    final List<ItemInfo> workspaceItems;
+    /** All the widgets, read only. */
+    final List<LauncherAppWidgetInfo> appWidgets;
+    /** All the folders by id. Must not be changed, copy it to make changes. Their contents
+     *  are not part of the snapshot, see above. */
+    final LongHashMap<FolderInfo> folders;
+
+    private ModelSnapshot(int version, boolean complete, List<ItemInfo> workspaceItems,
+            List<LauncherAppWidgetInfo> appWidgets, LongHashMap<FolderInfo> folders) {
+        this.version = version;
+        this.complete = complete;
+        this.workspaceItems = workspaceItems;
+        this.appWidgets = appWidgets;
+        this.folders = folders;
+    }
+
+    /**
+     * Returns the snapshot of the given lists that follows this one. Lists that hold the same
+     * items as this snapshot's are shared instead of copied, and if nothing changed this
+     * snapshot itself is returned.
+     */
+    ModelSnapshot update(boolean complete, List<ItemInfo> workspaceItems,
+            List<LauncherAppWidgetInfo> appWidgets, LongHashMap<FolderInfo> folders) {
+        final boolean sameItems = sameElements(this.workspaceItems, workspaceItems);
+        final boolean sameWidgets = sameElements(this.appWidgets, appWidgets);
+        final boolean sameFolders = this.folders.sameEntries(folders);
+        if (sameItems && sameWidgets && sameFolders && complete == this.complete) {
+            return this;
+        }
+        return new ModelSnapshot(version + 1, complete,
+                sameItems ? this.workspaceItems : copyOf(workspaceItems),
+                sameWidgets ? this.appWidgets : copyOf(appWidgets),
+                sameFolders ? this.folders : new LongHashMap<FolderInfo>(folders));
+    }
+
+    private static boolean sameElements(List<?> a, List<?> b) {
+        final int N = a.size();
+        if (b.size() != N) {
+            return false;
+        }
+        for (int i = 0; i < N; i++) {
+            if (a.get(i) != b.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static <T> List<T> copyOf(List<T> list) {
+        return Collections.unmodifiableList(new ArrayList<T>(list));
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.launcherjellybean.android;
+
+import android.graphics.Bitmap;
+
+import java.io.PrintWriter;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * 按像素内容共享相同的图标Bitmap.
+ * Hands out one shared bitmap for icons with the same pixels, e.g. the activities of one app,
+ * every app that falls back to the default icon, or shortcuts of one package. Bitmaps are
+ * looked up by a hash of their pixels and compared in full before they are shared.
+ *
+ * Every {@link #acquire(Bitmap)} counts a reference and a bitmap may only be recycled once
+ * {@link #release(Bitmap)} says that the last reference is gone. Owners that never release
+ * (items that are simply dropped) keep the bitmap from being recycled, but not from being
+ * collected: the store only holds on to bitmaps weakly. Safe to use from any thread.
+ */
+class SharedBitmapStore {
+    private static class Entry {
+        final WeakReference<Bitmap> bitmap;
+        final int byteCount;
+        int refs;
+
+        Entry(Bitmap bitmap) {
+            this.bitmap = new WeakReference<Bitmap>(bitmap);
+            byteCount = bitmap.getRowBytes() * bitmap.getHeight();
+            refs = 1;
+        }
+    }
+
+    // Guarded by this
+    private final HashMap<Integer, ArrayList<Entry>> mEntries =
+            new HashMap<Integer, ArrayList<Entry>>();
+    private int mShared;
+    private long mBytesSaved;
+
+    /**
+     * Returns the shared bitmap with the same pixels as bitmap, or bitmap itself if there is
+     * none yet, and counts a reference to it.
+     */
+    Bitmap acquire(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return bitmap;
+        }
+        final int hash = hashPixels(bitmap);
+        synchronized (this) {
+            ArrayList<Entry> entries = mEntries.get(hash);
+            if (entries == null) {
+                entries = new ArrayList<Entry>(1);
+                mEntries.put(hash, entries);
+            }
+            final Iterator<Entry> iter = entries.iterator();
+            while (iter.hasNext()) {
+                final Entry entry = iter.next();
+                final Bitmap shared = entry.bitmap.get();
+                if (shared == null || shared.isRecycled()) {
+                    iter.remove();
+                } else if (shared == bitmap || shared.sameAs(bitmap)) {
+                    entry.refs++;
+                    if (shared != bitmap) {
+                        mShared++;
+                        mBytesSaved += entry.byteCount;
+                    }
+                    return shared;
+                }
+            }
+            entries.add(new Entry(bitmap));
+            return bitmap;
+        }
+    }
+
+    /**
+     * Drops a reference that {@link #acquire(Bitmap)} returned. Returns true if it was the
+     * last one, only then may the caller recycle the bitmap.
+     */
+    boolean release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return false;
+        }
+        final int hash = hashPixels(bitmap);
+        synchronized (this) {
+            final ArrayList<Entry> entries = mEntries.get(hash);
+            if (entries == null) {
+                return false;
+            }
+            for (int i = 0; i < entries.size(); i++) {
+                final Entry entry = entries.get(i);
+                if (entry.bitmap.get() == bitmap) {
+                    if (--entry.refs > 0) {
+                        return false;
+                    }
+                    entries.remove(i);
+                    if (entries.isEmpty()) {
+                        mEntries.remove(hash);
+                    }
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static int hashPixels(Bitmap bitmap) {
+        final long hash = Utilities.hashIconPixels(bitmap);
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    synchronized void dump(String prefix, PrintWriter writer) {
+        int bitmaps = 0;
+        int refs = 0;
+        for (ArrayList<Entry> entries : mEntries.values()) {
+            for (Entry entry : entries) {
+                if (entry.bitmap.get() != null) {
+                    bitmaps++;
+                    refs += entry.refs;
+                }
+            }
+        }
+        writer.println(prefix + "SharedBitmapStore: bitmaps=" + bitmaps + " refs=" + refs
+                + " shared=" + mShared + " bytesSaved=" + mBytesSaved);
+    }
+}
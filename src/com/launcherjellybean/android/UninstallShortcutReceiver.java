@@ -23,6 +23,7 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Handler;
 import android.widget.Toast;
 
 import com.launcherjellybean.android.R;
@@ -58,6 +59,36 @@ public class UninstallShortcutReceiver extends BroadcastReceiver {
         }
     }
 
+    /**
+     * Returns the ids of the favorites with the given title whose intent filterEquals()
+     * intent, for when the model can't answer.
+     */
+    private static ArrayList<Long> queryShortcutIds(Context context, String name,
+            Intent intent) {
+        final ArrayList<Long> ids = new ArrayList<Long>();
+        Cursor c = context.getContentResolver().query(LauncherSettings.Favorites.CONTENT_URI,
+            new String[] { LauncherSettings.Favorites._ID, LauncherSettings.Favorites.INTENT },
+            LauncherSettings.Favorites.TITLE + "=?", new String[] { name }, null);
+
+        final int intentIndex = c.getColumnIndexOrThrow(LauncherSettings.Favorites.INTENT);
+        final int idIndex = c.getColumnIndexOrThrow(LauncherSettings.Favorites._ID);
+
+        try {
+            while (c.moveToNext()) {
+                try {
+                    if (intent.filterEquals(Intent.parseUri(c.getString(intentIndex), 0))) {
+                        ids.add(c.getLong(idIndex));
+                    }
+                } catch (URISyntaxException e) {
+                    // Ignore
+                }
+            }
+        } finally {
+            c.close();
+        }
+        return ids;
+    }
+
     public void onReceive(Context context, Intent data) {
         if (!ACTION_UNINSTALL_SHORTCUT.equals(data.getAction())) {
             return;
@@ -97,48 +128,42 @@ public class UninstallShortcutReceiver extends BroadcastReceiver {
         }
     }
 
-    private static void removeShortcut(Context context, Intent data,
+    private static void removeShortcut(final Context context, Intent data,
             final SharedPreferences sharedPrefs) {
-        Intent intent = data.getParcelableExtra(Intent.EXTRA_SHORTCUT_INTENT);
-        String name = data.getStringExtra(Intent.EXTRA_SHORTCUT_NAME);
-        boolean duplicate = data.getBooleanExtra(Launcher.EXTRA_SHORTCUT_DUPLICATE, true);
+        final Intent intent = data.getParcelableExtra(Intent.EXTRA_SHORTCUT_INTENT);
+        final String name = data.getStringExtra(Intent.EXTRA_SHORTCUT_NAME);
+        final boolean duplicate = data.getBooleanExtra(Launcher.EXTRA_SHORTCUT_DUPLICATE, true);
 
         if (intent != null && name != null) {
-            final ContentResolver cr = context.getContentResolver();
-            Cursor c = cr.query(LauncherSettings.Favorites.CONTENT_URI,
-                new String[] { LauncherSettings.Favorites._ID, LauncherSettings.Favorites.INTENT },
-                LauncherSettings.Favorites.TITLE + "=?", new String[] { name }, null);
-
-            final int intentIndex = c.getColumnIndexOrThrow(LauncherSettings.Favorites.INTENT);
-            final int idIndex = c.getColumnIndexOrThrow(LauncherSettings.Favorites._ID);
-
-            boolean changed = false;
-
-            try {
-                while (c.moveToNext()) {
-                    try {
-                        if (intent.filterEquals(Intent.parseUri(c.getString(intentIndex), 0))) {
-                            final long id = c.getLong(idIndex);
-                            final Uri uri = LauncherSettings.Favorites.getContentUri(id, false);
-                            cr.delete(uri, null, null);//删除DB中的数据
-                            changed = true;
-                            if (!duplicate) {
-                                break;
-                            }
+            // The model's package index only lives on the worker thread
+            final Handler handler = new Handler();
+            LauncherModel.runOnWorkerThread(new Runnable() {
+                public void run() {
+                    ArrayList<Long> ids = LauncherModel.getShortcutIds(name, intent);
+                    if (ids == null) {
+                        ids = queryShortcutIds(context, name, intent);
+                    }
+                    if (ids.isEmpty()) {
+                        return;
+                    }
+
+                    final ContentResolver cr = context.getContentResolver();
+                    for (long id : ids) {
+                        final Uri uri = LauncherSettings.Favorites.getContentUri(id, true);
+                        cr.delete(uri, null, null);//删除DB中的数据
+                        if (!duplicate) {
+                            break;
                         }
-                    } catch (URISyntaxException e) {
-                        // Ignore
                     }
+                    handler.post(new Runnable() {
+                        public void run() {
+                            Toast.makeText(context,
+                                    context.getString(R.string.shortcut_uninstalled, name),
+                                    Toast.LENGTH_SHORT).show();
+                        }
+                    });
                 }
-            } finally {
-                c.close();
-            }
-
-            if (changed) {
-                cr.notifyChange(LauncherSettings.Favorites.CONTENT_URI, null);
-                Toast.makeText(context, context.getString(R.string.shortcut_uninstalled, name),
-                        Toast.LENGTH_SHORT).show();
-            }
+            });
 
             // Remove any items due to be animated
             boolean appRemoved;
@@ -16,6 +16,7 @@
 
 package com.launcherjellybean.android;
 
+import java.nio.ByteBuffer;
 import java.util.Random;
 
 import android.content.Context;
@@ -43,22 +44,56 @@ final class Utilities {
     @SuppressWarnings("unused")
     private static final String TAG = "Launcher.Utilities";
 
+    // Set once by initStatics(), before sInitialized
     private static int sIconWidth = -1;
     private static int sIconHeight = -1;
     private static int sIconTextureWidth = -1;
     private static int sIconTextureHeight = -1;
+    private static float sDensity;
+    private static volatile boolean sInitialized;
 
-    private static final Paint sBlurPaint = new Paint();
-    private static final Paint sGlowColorPressedPaint = new Paint();
-    private static final Paint sGlowColorFocusedPaint = new Paint();
-    private static final Paint sDisabledPaint = new Paint();
-    private static final Rect sOldBounds = new Rect();
-    private static final Canvas sCanvas = new Canvas();
-
-    static {
-        sCanvas.setDrawFilter(new PaintFlagsDrawFilter(Paint.DITHER_FLAG,
-                Paint.FILTER_BITMAP_FLAG));
+    /**
+     * 每个线程各自的绘制状态,图标可以在多个线程上同时绘制.
+     * The canvas, paints and scratch rect used to draw icons. Each thread has its own, so
+     * icons can be drawn on several threads at once; the output is the same as with shared ones.
+     */
+    private static class Renderer {
+        final Canvas canvas = new Canvas();
+        final Rect oldBounds = new Rect();
+        final Paint blurPaint = new Paint();
+        final Paint glowColorPressedPaint = new Paint();
+        final Paint glowColorFocusedPaint = new Paint();
+        final Paint disabledPaint = new Paint();
+
+        Renderer(float density) {
+            canvas.setDrawFilter(new PaintFlagsDrawFilter(Paint.DITHER_FLAG,
+                    Paint.FILTER_BITMAP_FLAG));
+
+            blurPaint.setMaskFilter(new BlurMaskFilter(5 * density, BlurMaskFilter.Blur.NORMAL));
+            // AOSP Change
+            //glowColorPressedPaint.setColor(0xffffc300);
+            //glowColorPressedPaint.setMaskFilter(TableMaskFilter.CreateClipTable(0, 30));
+            glowColorFocusedPaint.setColor(0xffff8e00);
+            //glowColorFocusedPaint.setMaskFilter(TableMaskFilter.CreateClipTable(0, 30));
+
+            ColorMatrix cm = new ColorMatrix();
+            cm.setSaturation(0.2f);
+            disabledPaint.setColorFilter(new ColorMatrixColorFilter(cm));
+            disabledPaint.setAlpha(0x88);
+        }
     }
+
+    // Only use after initStatics()
+    private static final ThreadLocal<Renderer> sRenderer = new ThreadLocal<Renderer>() {
+        @Override
+        protected Renderer initialValue() {
+            return new Renderer(sDensity);
+        }
+    };
+
+    // Scratch buffer for the pixels to hash, per thread
+    private static final ThreadLocal<ByteBuffer> sPixels = new ThreadLocal<ByteBuffer>();
+
     static int sColors[] = { 0xffff0000, 0xff00ff00, 0xff0000ff };
     static int sColorIndex = 0;
 
@@ -92,113 +127,111 @@ final class Utilities {
      * Returns a bitmap suitable for the all apps view.
      */
     static Bitmap createIconBitmap(Drawable icon, Context context) {
-        synchronized (sCanvas) { // we share the statics :-(
-            if (sIconWidth == -1) {
-                initStatics(context);
-            }
-
-            int width = sIconWidth;
-            int height = sIconHeight;
-
-            if (icon instanceof PaintDrawable) {//PaintDrawable只画边界的Drawable
-                PaintDrawable painter = (PaintDrawable) icon;
-                painter.setIntrinsicWidth(width);//设置它固有原始的尺寸
-                painter.setIntrinsicHeight(height);
-            } else if (icon instanceof BitmapDrawable) {
-                // Ensure the bitmap has a density.
-                BitmapDrawable bitmapDrawable = (BitmapDrawable) icon;
-                Bitmap bitmap = bitmapDrawable.getBitmap();
-                if (bitmap.getDensity() == Bitmap.DENSITY_NONE) {
-                    bitmapDrawable.setTargetDensity(context.getResources().getDisplayMetrics());
-                }
+        if (!sInitialized) {
+            initStatics(context);
+        }
+        final Renderer renderer = sRenderer.get();
+
+        int width = sIconWidth;
+        int height = sIconHeight;
+
+        if (icon instanceof PaintDrawable) {//PaintDrawable只画边界的Drawable
+            PaintDrawable painter = (PaintDrawable) icon;
+            painter.setIntrinsicWidth(width);//设置它固有原始的尺寸
+            painter.setIntrinsicHeight(height);
+        } else if (icon instanceof BitmapDrawable) {
+            // Ensure the bitmap has a density.
+            BitmapDrawable bitmapDrawable = (BitmapDrawable) icon;
+            Bitmap bitmap = bitmapDrawable.getBitmap();
+            if (bitmap.getDensity() == Bitmap.DENSITY_NONE) {
+                bitmapDrawable.setTargetDensity(context.getResources().getDisplayMetrics());
             }
-            int sourceWidth = icon.getIntrinsicWidth();
-            int sourceHeight = icon.getIntrinsicHeight();
-            if (sourceWidth > 0 && sourceHeight > 0) {
-                // There are intrinsic sizes.
-                if (width < sourceWidth || height < sourceHeight) {
-                    // It's too big, scale it down.
-                    final float ratio = (float) sourceWidth / sourceHeight;
-                    //使预设值等比例缩小
-                    if (sourceWidth > sourceHeight) {
-                        height = (int) (width / ratio);
-                    } else if (sourceHeight > sourceWidth) {
-                        width = (int) (height * ratio);
-                    }
-                    //应用图标的宽高都比预设的小
-                } else if (sourceWidth < width && sourceHeight < height) {
-                    //不用缩放,就用应用原始的图标的尺寸.Don't scale up the icon
-                    width = sourceWidth;
-                    height = sourceHeight;
+        }
+        int sourceWidth = icon.getIntrinsicWidth();
+        int sourceHeight = icon.getIntrinsicHeight();
+        if (sourceWidth > 0 && sourceHeight > 0) {
+            // There are intrinsic sizes.
+            if (width < sourceWidth || height < sourceHeight) {
+                // It's too big, scale it down.
+                final float ratio = (float) sourceWidth / sourceHeight;
+                //使预设值等比例缩小
+                if (sourceWidth > sourceHeight) {
+                    height = (int) (width / ratio);
+                } else if (sourceHeight > sourceWidth) {
+                    width = (int) (height * ratio);
                 }
+                //应用图标的宽高都比预设的小
+            } else if (sourceWidth < width && sourceHeight < height) {
+                //不用缩放,就用应用原始的图标的尺寸.Don't scale up the icon
+                width = sourceWidth;
+                height = sourceHeight;
             }
+        }
 
-            // no intrinsic size --> use default size
-            int textureWidth = sIconTextureWidth;
-            int textureHeight = sIconTextureHeight;
-
-            //这里生成一个新的Bitmap,待画完后作返回值
-            final Bitmap bitmap = Bitmap.createBitmap(textureWidth, textureHeight,
-                    Bitmap.Config.ARGB_8888);
-            final Canvas canvas = sCanvas;
-            canvas.setBitmap(bitmap);
-
-            //从这里猜测sIconTextureWidth,sIconTextureHeight
-            //是指应用图标及其质地纹理(阴影?)的宽高度之和吧?
-            final int left = (textureWidth-width) / 2;
-            final int top = (textureHeight-height) / 2;
-
-            @SuppressWarnings("all") // suppress dead code warning
-            final boolean debug = false;
-            if (debug) {
-                // draw a big box for the icon for debugging
-                canvas.drawColor(sColors[sColorIndex]);
-                if (++sColorIndex >= sColors.length) sColorIndex = 0;
-                Paint debugPaint = new Paint();
-                debugPaint.setColor(0xffcccc00);
-                canvas.drawRect(left, top, left+width, top+height, debugPaint);
-            }
-
-            sOldBounds.set(icon.getBounds());//保存icon的边界到sOldBounds
-            
-            //The setBounds(Rect) / setBounds (int left, int top, int right, int bottom) method 
-            //must be called to tell the Drawable where it is drawn and how large it should be.
-            //All Drawables should respect the requested size, often simply by scaling their imagery. 
-            //先设置icon draw时的边界,这些坐标点是指对于将要画的Canvas的坐标,不是icon它自己的坐标!
-            icon.setBounds(left, top, left+width, top+height);//上面计算的工作就是要得到这个边界.
-            												  //因为这个width,height是经过等比例
-            												  //缩放计算后的值,所以不会变形.
-            //开始画了,把icon画到canvas上,可能会缩放的.
-            icon.draw(canvas);
-            icon.setBounds(sOldBounds);//还原了icon边界
-            canvas.setBitmap(null);
+        // no intrinsic size --> use default size
+        int textureWidth = sIconTextureWidth;
+        int textureHeight = sIconTextureHeight;
 
-            return bitmap;
+        //这里生成一个新的Bitmap,待画完后作返回值
+        final Bitmap bitmap = Bitmap.createBitmap(textureWidth, textureHeight,
+                Bitmap.Config.ARGB_8888);
+        final Canvas canvas = renderer.canvas;
+        canvas.setBitmap(bitmap);
+
+        //从这里猜测sIconTextureWidth,sIconTextureHeight
+        //是指应用图标及其质地纹理(阴影?)的宽高度之和吧?
+        final int left = (textureWidth-width) / 2;
+        final int top = (textureHeight-height) / 2;
+
+        @SuppressWarnings("all") // suppress dead code warning
+        final boolean debug = false;
+        if (debug) {
+            // draw a big box for the icon for debugging
+            canvas.drawColor(sColors[sColorIndex]);
+            if (++sColorIndex >= sColors.length) sColorIndex = 0;
+            Paint debugPaint = new Paint();
+            debugPaint.setColor(0xffcccc00);
+            canvas.drawRect(left, top, left+width, top+height, debugPaint);
         }
+
+        renderer.oldBounds.set(icon.getBounds());//保存icon的边界到oldBounds
+        
+        //The setBounds(Rect) / setBounds (int left, int top, int right, int bottom) method 
+        //must be called to tell the Drawable where it is drawn and how large it should be.
+        //All Drawables should respect the requested size, often simply by scaling their imagery. 
+        //先设置icon draw时的边界,这些坐标点是指对于将要画的Canvas的坐标,不是icon它自己的坐标!
+        icon.setBounds(left, top, left+width, top+height);//上面计算的工作就是要得到这个边界.
+        												  //因为这个width,height是经过等比例
+        												  //缩放计算后的值,所以不会变形.
+        //开始画了,把icon画到canvas上,可能会缩放的.
+        icon.draw(canvas);
+        icon.setBounds(renderer.oldBounds);//还原了icon边界
+        canvas.setBitmap(null);
+
+        return bitmap;
     }
 
     static void drawSelectedAllAppsBitmap(Canvas dest, int destWidth, int destHeight,
             boolean pressed, Bitmap src) {
-        synchronized (sCanvas) { // we share the statics :-(
-            if (sIconWidth == -1) {
-                // We can't have gotten to here without src being initialized, which
-                // comes from this file already.  So just assert.
-                //initStatics(context);
-                throw new RuntimeException("Assertion failed: Utilities not initialized");
-            }
+        if (!sInitialized) {
+            // We can't have gotten to here without src being initialized, which
+            // comes from this file already.  So just assert.
+            //initStatics(context);
+            throw new RuntimeException("Assertion failed: Utilities not initialized");
+        }
+        final Renderer renderer = sRenderer.get();
 
-            dest.drawColor(0, PorterDuff.Mode.CLEAR);
+        dest.drawColor(0, PorterDuff.Mode.CLEAR);
 
-            int[] xy = new int[2];
-            Bitmap mask = src.extractAlpha(sBlurPaint, xy);
+        int[] xy = new int[2];
+        Bitmap mask = src.extractAlpha(renderer.blurPaint, xy);
 
-            float px = (destWidth - src.getWidth()) / 2;
-            float py = (destHeight - src.getHeight()) / 2;
-            dest.drawBitmap(mask, px + xy[0], py + xy[1],
-                    pressed ? sGlowColorPressedPaint : sGlowColorFocusedPaint);
+        float px = (destWidth - src.getWidth()) / 2;
+        float py = (destHeight - src.getHeight()) / 2;
+        dest.drawBitmap(mask, px + xy[0], py + xy[1],
+                pressed ? renderer.glowColorPressedPaint : renderer.glowColorFocusedPaint);
 
-            mask.recycle();
-        }
+        mask.recycle();
     }
 
     /**
@@ -214,58 +247,79 @@ final class Utilities {
      *         thumbnail could not be created.
      */
     static Bitmap resampleIconBitmap(Bitmap bitmap, Context context) {
-        synchronized (sCanvas) { // we share the statics :-(
-            if (sIconWidth == -1) {
-                initStatics(context);
-            }
+        if (!sInitialized) {
+            initStatics(context);
+        }
 
-            if (bitmap.getWidth() == sIconWidth && bitmap.getHeight() == sIconHeight) {
-                return bitmap;
-            } else {
-                final Resources resources = context.getResources();
-                return createIconBitmap(new BitmapDrawable(resources, bitmap), context);
-            }
+        if (bitmap.getWidth() == sIconWidth && bitmap.getHeight() == sIconHeight) {
+            return bitmap;
+        } else {
+            final Resources resources = context.getResources();
+            return createIconBitmap(new BitmapDrawable(resources, bitmap), context);
         }
     }
 
     static Bitmap drawDisabledBitmap(Bitmap bitmap, Context context) {
-        synchronized (sCanvas) { // we share the statics :-(
-            if (sIconWidth == -1) {
-                initStatics(context);
-            }
-            final Bitmap disabled = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(),
-                    Bitmap.Config.ARGB_8888);
-            final Canvas canvas = sCanvas;
-            canvas.setBitmap(disabled);
-            
-            canvas.drawBitmap(bitmap, 0.0f, 0.0f, sDisabledPaint);
+        if (!sInitialized) {
+            initStatics(context);
+        }
+        final Renderer renderer = sRenderer.get();
+        final Bitmap disabled = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(),
+                Bitmap.Config.ARGB_8888);
+        final Canvas canvas = renderer.canvas;
+        canvas.setBitmap(disabled);
+        
+        canvas.drawBitmap(bitmap, 0.0f, 0.0f, renderer.disabledPaint);
 
-            canvas.setBitmap(null);
+        canvas.setBitmap(null);
 
-            return disabled;
-        }
+        return disabled;
     }
 
-    private static void initStatics(Context context) {
+    private static synchronized void initStatics(Context context) {
+        if (sInitialized) {
+            return;
+        }
         final Resources resources = context.getResources();
         final DisplayMetrics metrics = resources.getDisplayMetrics();
-        final float density = metrics.density;
+        sDensity = metrics.density;
 
         //48dp/64dp/72dp
         sIconWidth = sIconHeight = (int) resources.getDimension(R.dimen.app_icon_size);
         sIconTextureWidth = sIconTextureHeight = sIconWidth;
+        sInitialized = true;
+    }
 
-        sBlurPaint.setMaskFilter(new BlurMaskFilter(5 * density, BlurMaskFilter.Blur.NORMAL));
-        // AOSP Change
-        //sGlowColorPressedPaint.setColor(0xffffc300);
-        //sGlowColorPressedPaint.setMaskFilter(TableMaskFilter.CreateClipTable(0, 30));
-        sGlowColorFocusedPaint.setColor(0xffff8e00);
-        //sGlowColorFocusedPaint.setMaskFilter(TableMaskFilter.CreateClipTable(0, 30));
-
-        ColorMatrix cm = new ColorMatrix();
-        cm.setSaturation(0.2f);
-        sDisabledPaint.setColorFilter(new ColorMatrixColorFilter(cm));
-        sDisabledPaint.setAlpha(0x88);
+    /**
+     * 计算图标像素的64位指纹.
+     * Returns a 64 bit FNV-1a hash of the size, config and pixels of a bitmap, never 0 so that
+     * 0 can stand for "unknown". Equal bitmaps have equal hashes; bitmaps with equal hashes are
+     * the same for all practical purposes, but callers that must be sure still compare them.
+     */
+    static long hashIconPixels(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return 0;
+        }
+        final int byteCount = bitmap.getRowBytes() * bitmap.getHeight();
+        ByteBuffer pixels = sPixels.get();
+        if (pixels == null || pixels.capacity() < byteCount) {
+            pixels = ByteBuffer.allocate(byteCount);
+            sPixels.set(pixels);
+        }
+        pixels.clear();
+        bitmap.copyPixelsToBuffer(pixels);
+
+        final long prime = 0x100000001b3L;
+        long hash = 0xcbf29ce484222325L;
+        hash = (hash ^ bitmap.getWidth()) * prime;
+        hash = (hash ^ bitmap.getHeight()) * prime;
+        final Bitmap.Config config = bitmap.getConfig();
+        hash = (hash ^ (config != null ? config.ordinal() : -1)) * prime;
+        final byte[] data = pixels.array();
+        for (int i = 0; i < byteCount; i++) {
+            hash = (hash ^ (data[i] & 0xff)) * prime;
+        }
+        return hash != 0 ? hash : 1;
     }
 
     /** Only works for positive numbers. */
@@ -62,6 +62,7 @@ import com.launcherjellybean.android.LauncherSettings.Favorites;
 import java.lang.reflect.Method;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
@@ -3650,104 +3651,78 @@ public class Workspace extends SmoothPagedView
         }
     }
 
-    /**从桌面上删除指定的应用列表中包含的快捷方式*/
-    void removeItems(final ArrayList<ApplicationInfo> apps) {
-        final AppWidgetManager widgets = AppWidgetManager.getInstance(getContext());
-
+    /**
+     * 从桌面上删除指定的应用列表中包含的快捷方式
+     * Removes the given items, which are all the shortcuts (also the ones in folders) and widgets
+     * of the removed apps' packages (see LauncherModel.sItemsByPackage).
+     */
+    void removeItems(final ArrayList<ApplicationInfo> apps, final ArrayList<ItemInfo> items) {
         final HashSet<String> packageNames = new HashSet<String>();
         final int appCount = apps.size();
         for (int i = 0; i < appCount; i++) {
             packageNames.add(apps.get(i).componentName.getPackageName());
         }
-
-        ArrayList<CellLayout> cellLayouts = getWorkspaceAndHotseatCellLayouts();
-        for (final CellLayout layoutParent: cellLayouts) {
-            final ViewGroup layout = layoutParent.getShortcutsAndWidgets();
-
-            // Avoid ANRs by treating each screen separately
-            post(new Runnable() {
-                public void run() {
-                    final ArrayList<View> childrenToRemove = new ArrayList<View>();
-                    childrenToRemove.clear();
-
-                    int childCount = layout.getChildCount();
-                    for (int j = 0; j < childCount; j++) {
-                        final View view = layout.getChildAt(j);
-                        Object tag = view.getTag();
-
-                        if (tag instanceof ShortcutInfo) {//删除快捷方式
-                            final ShortcutInfo info = (ShortcutInfo) tag;
-                            final Intent intent = info.intent;
-                            final ComponentName name = intent.getComponent();
-
-                            if (name != null) {
-                                if (packageNames.contains(name.getPackageName())) {
-                                    LauncherModel.deleteItemFromDatabase(mLauncher, info);
-                                    childrenToRemove.add(view);
-                                }
-                            }
-                        } else if (tag instanceof FolderInfo) {//这里删除文件夹,包括它里面的所有快捷方式
-                            final FolderInfo info = (FolderInfo) tag;
-                            final ArrayList<ShortcutInfo> contents = info.contents;
-                            final int contentsCount = contents.size();
-                            final ArrayList<ShortcutInfo> appsToRemoveFromFolder =
-                                    new ArrayList<ShortcutInfo>();
-
-                            for (int k = 0; k < contentsCount; k++) {
-                                final ShortcutInfo appInfo = contents.get(k);
-                                final Intent intent = appInfo.intent;
-                                final ComponentName name = intent.getComponent();
-
-                                if (name != null) {
-                                    if (packageNames.contains(name.getPackageName())) {
+        final HashSet<ItemInfo> itemsToRemove = new HashSet<ItemInfo>(items);
+
+        if (!itemsToRemove.isEmpty()) {
+            ArrayList<CellLayout> cellLayouts = getWorkspaceAndHotseatCellLayouts();
+            for (final CellLayout layoutParent: cellLayouts) {
+                final ViewGroup layout = layoutParent.getShortcutsAndWidgets();
+
+                // Avoid ANRs by treating each screen separately
+                post(new Runnable() {
+                    public void run() {
+                        final ArrayList<View> childrenToRemove = new ArrayList<View>();
+
+                        int childCount = layout.getChildCount();
+                        for (int j = 0; j < childCount; j++) {
+                            final View view = layout.getChildAt(j);
+                            Object tag = view.getTag();
+
+                            if (tag instanceof FolderInfo) {//这里删除文件夹里的快捷方式
+                                final FolderInfo info = (FolderInfo) tag;
+                                final ArrayList<ShortcutInfo> contents = info.contents;
+                                final ArrayList<ShortcutInfo> appsToRemoveFromFolder =
+                                        new ArrayList<ShortcutInfo>();
+                                for (ShortcutInfo appInfo : contents) {
+                                    if (itemsToRemove.contains(appInfo)) {
                                         appsToRemoveFromFolder.add(appInfo);
                                     }
                                 }
-                            }
-                            for (ShortcutInfo item: appsToRemoveFromFolder) {
-                                info.remove(item);//在文件夹中的快捷方式从文件夹中删除,与上面桌面的不同
-                                LauncherModel.deleteItemFromDatabase(mLauncher, item);
-                            }
-                        } else if (tag instanceof LauncherAppWidgetInfo) {//删除Widget
-                            final LauncherAppWidgetInfo info = (LauncherAppWidgetInfo) tag;
-                            final ComponentName provider = info.providerName;
-                            if (provider != null) {
-                                if (packageNames.contains(provider.getPackageName())) {
-                                    LauncherModel.deleteItemFromDatabase(mLauncher, info);
-                                    childrenToRemove.add(view);
+                                for (ShortcutInfo item: appsToRemoveFromFolder) {
+                                    info.remove(item);//在文件夹中的快捷方式从文件夹中删除,与上面桌面的不同
                                 }
+                            } else if (itemsToRemove.contains(tag)) {//删除快捷方式或Widget
+                                childrenToRemove.add(view);
                             }
                         }
-                    }
 
-                    childCount = childrenToRemove.size();
-                    for (int j = 0; j < childCount; j++) {
-                        View child = childrenToRemove.get(j);
-                        // Note: We can not remove the view directly from CellLayoutChildren as this
-                        // does not re-mark the spaces as unoccupied.注意标记占用数组,留出空位
-                        layoutParent.removeViewInLayout(child);
-                        if (child instanceof DropTarget) {//child View可能是DropTarget吗?
-                            mDragController.removeDropTarget((DropTarget)child);
+                        childCount = childrenToRemove.size();
+                        for (int j = 0; j < childCount; j++) {
+                            View child = childrenToRemove.get(j);
+                            // Note: We can not remove the view directly from CellLayoutChildren as this
+                            // does not re-mark the spaces as unoccupied.注意标记占用数组,留出空位
+                            layoutParent.removeViewInLayout(child);
+                            if (child instanceof DropTarget) {//child View可能是DropTarget吗?
+                                mDragController.removeDropTarget((DropTarget)child);
+                            }
                         }
-                    }
 
-                    if (childCount > 0) {
-                        layout.requestLayout();
-                        layout.invalidate();
+                        if (childCount > 0) {
+                            layout.requestLayout();
+                            layout.invalidate();
+                        }
                     }
-                }
-            });
+                });
+            }
         }
 
         // It is no longer the case the BubbleTextViews correspond 1:1 with the workspace items in
         // the database (and LauncherModel) since shortcuts are not added and animated in until
         // the user returns to launcher.  As a result, we really should be cleaning up the Db
-        // regardless of whether the item was added or not (unlike the logic above).  This is only
-        // relevant for direct workspace items.
+        // regardless of whether the item was added or not (unlike the logic above).
         //因为桌面图标BubbleTextView与Workspace中的item在数据库中可能并不是1:1的关系,因为桌面快捷方式的添加
-        //可能是在后台进行的,(还有一个应用有多个入口时,如拔号与联系人是同一个应用,packageName是一样的,但桌面可以
-        //有两个快捷方式).所以如果桌面删除了快捷方式,我们要把数据库中对应的所有此快捷方式的数据都删除掉.(所以这里
-        //有个bug,如果删除拔号应用图标,如果桌面也有联系人,那么联系人也被删除了)
+        //可能是在后台进行的.所以无论桌面上有没有对应的View,我们都要把数据库中属于这些包的数据都删除掉.
         post(new Runnable() {
             @Override
             public void run() {
@@ -3757,26 +3732,20 @@ public class Workspace extends SmoothPagedView
                 Set<String> newApps = sp.getStringSet(InstallShortcutReceiver.NEW_APPS_LIST_KEY,
                         null);
 
-                for (String packageName: packageNames) {
-                    // Remove all items that have the same package, but were not removed above
-                    ArrayList<ShortcutInfo> infos =
-                            mLauncher.getModel().getShortcutInfosForPackage(packageName);
-                    for (ShortcutInfo info : infos) {
-                        LauncherModel.deleteItemFromDatabase(mLauncher, info);
-                    }
-                    // Remove all queued items that match the same package
-                    if (newApps != null) {//这一步可能是同步NEW_APPS_LIST中的数据,因为上面可能已经删除了
-                        synchronized (newApps) {
-                            Iterator<String> iter = newApps.iterator();
-                            while (iter.hasNext()) {
-                                try {
-                                    Intent intent = Intent.parseUri(iter.next(), 0);
-                                    String pn = ItemInfo.getPackageName(intent);
-                                    if (packageNames.contains(pn)) {
-                                        iter.remove();
-                                    }
-                                } catch (URISyntaxException e) {}
-                            }
+                LauncherModel.deleteItemsFromDatabase(mLauncher, itemsToRemove);
+
+                // Remove all queued items that match the same package
+                if (newApps != null) {//这一步可能是同步NEW_APPS_LIST中的数据,因为上面可能已经删除了
+                    synchronized (newApps) {
+                        Iterator<String> iter = newApps.iterator();
+                        while (iter.hasNext()) {
+                            try {
+                                Intent intent = Intent.parseUri(iter.next(), 0);
+                                String pn = ItemInfo.getPackageName(intent);
+                                if (packageNames.contains(pn)) {
+                                    iter.remove();
+                                }
+                            } catch (URISyntaxException e) {}
                         }
                     }
                 }
@@ -3784,38 +3753,77 @@ public class Workspace extends SmoothPagedView
         });
     }
 
-    /**以传入的应用列表中的应用信息为参考标准,找到并更新桌面上图标,使桌面图标数据与列表中的同步*/
-    void updateShortcuts(ArrayList<ApplicationInfo> apps) {
-        ArrayList<ShortcutAndWidgetContainer> childrenLayouts = getAllShortcutAndWidgetContainers();
-        for (ShortcutAndWidgetContainer layout: childrenLayouts) {
-            int childCount = layout.getChildCount();
-            for (int j = 0; j < childCount; j++) {
-                final View view = layout.getChildAt(j);
-                Object tag = view.getTag();
-                if (tag instanceof ShortcutInfo) {
-                  //注意:每个View对应的Item的信息是被携带在它的Tag上的!
-                    ShortcutInfo info = (ShortcutInfo) tag;
-                    // We need to check for ACTION_MAIN otherwise getComponent() might
-                    // return null for some shortcuts (for instance, for shortcuts to
-                    // web pages.)
-                    final Intent intent = info.intent;
-                    final ComponentName name = intent.getComponent();
-                    if (info.itemType == LauncherSettings.Favorites.ITEM_TYPE_APPLICATION &&
-                            Intent.ACTION_MAIN.equals(intent.getAction()) && name != null) {
-                        final int appCount = apps.size();
-                        for (int k = 0; k < appCount; k++) {
-                            ApplicationInfo app = apps.get(k);
-                            if (app.componentName.equals(name)) {
-                                BubbleTextView shortcut = (BubbleTextView) view;
-                                info.updateIcon(mIconCache);
-                                info.title = app.title.toString();
-                                shortcut.applyFromShortcutInfo(info, mIconCache);
-                            }
-                        }
-                    }
-                }
+    /**
+     * 以传入的应用列表中的应用信息为参考标准,找到并更新桌面上图标,使桌面图标数据与列表中的同步.
+     * Only the views of the given items, the ones that belong to the updated apps' packages
+     * (see LauncherModel.sItemsByPackage), are looked up, in the cell each item is in.
+     */
+    void updateShortcuts(ArrayList<ApplicationInfo> apps, ArrayList<ItemInfo> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+        final HashMap<ComponentName, ApplicationInfo> appsByComponent =
+                new HashMap<ComponentName, ApplicationInfo>();
+        final int appCount = apps.size();
+        for (int k = 0; k < appCount; k++) {
+            ApplicationInfo app = apps.get(k);
+            appsByComponent.put(app.componentName, app);
+        }
+
+        for (ItemInfo item : items) {
+            // Shortcuts in folders have no view on the workspace
+            if (!(item instanceof ShortcutInfo)
+                    || (item.container != LauncherSettings.Favorites.CONTAINER_DESKTOP
+                    && item.container != LauncherSettings.Favorites.CONTAINER_HOTSEAT)) {
+                continue;
+            }
+            ShortcutInfo info = (ShortcutInfo) item;
+            // We need to check for ACTION_MAIN otherwise getComponent() might
+            // return null for some shortcuts (for instance, for shortcuts to
+            // web pages.)
+            final Intent intent = info.intent;
+            final ComponentName name = intent.getComponent();
+            if (info.itemType != LauncherSettings.Favorites.ITEM_TYPE_APPLICATION ||
+                    !Intent.ACTION_MAIN.equals(intent.getAction()) || name == null) {
+                continue;
             }
+            ApplicationInfo app = appsByComponent.get(name);
+            if (app == null) {
+                continue;
+            }
+            //注意:每个View对应的Item的信息是被携带在它的Tag上的!
+            final View view = getViewForItem(info);
+            if (view instanceof BubbleTextView) {
+                BubbleTextView shortcut = (BubbleTextView) view;
+                info.updateIcon(mIconCache);
+                info.title = app.title.toString();
+                shortcut.applyFromShortcutInfo(info, mIconCache);
+            }
+        }
+    }
+
+    /**
+     * Returns the view of a workspace or hotseat item, looked up in the item's own cell, or
+     * among the children of its page if the view isn't in that cell (e.g. while it is dragged).
+     */
+    private View getViewForItem(ItemInfo item) {
+        final CellLayout layout = mLauncher.getCellLayout(item.container, item.screen);
+        if (layout == null) {
+            return null;
+        }
+        final View view = layout.getChildAt(item.cellX, item.cellY);
+        if (view != null && view.getTag() == item) {
+            return view;
         }
+        final ShortcutAndWidgetContainer children = layout.getShortcutsAndWidgets();
+        final int childCount = children.getChildCount();
+        for (int i = 0; i < childCount; i++) {
+            final View child = children.getChildAt(i);
+            if (child.getTag() == item) {
+                return child;
+            }
+        }
+        return null;
     }
 
     void moveToDefaultScreen(boolean animate) {
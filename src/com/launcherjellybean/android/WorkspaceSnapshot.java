@@ -0,0 +1,441 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.launcherjellybean.android;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * 桌面数据模型的磁盘快照,用于冷启动时跳过数据库查询和PackageManager解析,直接绑定上一次的结果.
+ * On-disk copy of the fully resolved workspace model (shortcuts with their icons, folders and
+ * widgets). It is written after a successful load and read back through a memory mapped file
+ * on the next cold start, so the workspace can be bound before the database has been queried.
+ * The loader always verifies a snapshot against the database afterwards.
+ */
+class WorkspaceSnapshot {
+    private static final String TAG = "Launcher.WorkspaceSnapshot";
+
+    static final String FILE_NAME = "workspace.snapshot";
+
+    private static final int MAGIC = 0x4c575331; // "LWS1"
+    private static final int VERSION = 1;
+
+    private static final int TYPE_SHORTCUT = 0;
+    private static final int TYPE_FOLDER = 1;
+
+    private static final int FLAG_CUSTOM_ICON = 1;
+    private static final int FLAG_FALLBACK_ICON = 1 << 1;
+
+    /**
+     * The items read back from a snapshot, in the same shape as LauncherModel's static lists.
+     */
+    static class Model {
+        final ArrayList<ItemInfo> workspaceItems = new ArrayList<ItemInfo>();
+        final ArrayList<LauncherAppWidgetInfo> appWidgets =
+                new ArrayList<LauncherAppWidgetInfo>();
+        final LongHashMap<FolderInfo> folders = new LongHashMap<FolderInfo>();
+        final LongHashMap<ItemInfo> itemsIdMap = new LongHashMap<ItemInfo>();
+    }
+
+    private final File mFile;
+    private final IconCache mIconCache;
+    /** No icon that is written is larger than this, a larger size means a corrupt file. */
+    private final int mMaxIconSize;
+
+    WorkspaceSnapshot(Context context, IconCache iconCache) {
+        mFile = new File(context.getFilesDir(), FILE_NAME);
+        mIconCache = iconCache;
+        // The size Utilities.createIconBitmap() draws every icon at
+        mMaxIconSize = (int) context.getResources().getDimension(R.dimen.app_icon_size);
+    }
+
+    /**
+     * Removes the snapshot so that a stale copy of the model is never bound.
+     */
+    void delete() {
+        //noinspection ResultOfMethodCallIgnored
+        mFile.delete();
+    }
+
+    /**
+     * Writes the given model to disk. The file is replaced atomically, so a crash halfway
+     * through leaves either the old snapshot or none at all.
+     */
+    boolean write(ArrayList<ItemInfo> workspaceItems, Collection<FolderInfo> folders,
+            ArrayList<LauncherAppWidgetInfo> appWidgets, int cellCountX, int cellCountY) {
+        final long t = LauncherModel.DEBUG_LOADERS ? System.currentTimeMillis() : 0;
+        final File tmp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        boolean success = false;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, Locale.getDefault().toString());
+            out.writeInt(Launcher.SCREEN_COUNT);
+            out.writeInt(cellCountX);
+            out.writeInt(cellCountY);
+
+            out.writeInt(folders.size());
+            for (FolderInfo folder : folders) {
+                writeItem(out, folder);
+                writeString(out, folder.title);
+                out.writeInt(folder.contents.size());
+                for (ShortcutInfo info : folder.contents) {
+                    writeShortcut(out, info);
+                }
+            }
+
+            out.writeInt(workspaceItems.size());
+            for (ItemInfo item : workspaceItems) {
+                if (item instanceof FolderInfo) {
+                    out.writeByte(TYPE_FOLDER);
+                    out.writeLong(item.id);
+                } else {
+                    out.writeByte(TYPE_SHORTCUT);
+                    writeShortcut(out, (ShortcutInfo) item);
+                }
+            }
+
+            out.writeInt(appWidgets.size());
+            for (LauncherAppWidgetInfo widget : appWidgets) {
+                out.writeInt(widget.appWidgetId);
+                writeString(out, widget.providerName.getPackageName());
+                writeString(out, widget.providerName.getClassName());
+                writeItem(out, widget);
+                out.writeInt(widget.minSpanX);
+                out.writeInt(widget.minSpanY);
+            }
+            out.flush();
+            success = true;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write workspace snapshot", e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    success = false;
+                }
+            }
+        }
+
+        if (success) {
+            success = tmp.renameTo(mFile);
+        }
+        if (!success) {
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+        }
+        if (LauncherModel.DEBUG_LOADERS) {
+            Log.d(TAG, "wrote workspace snapshot in " + (System.currentTimeMillis() - t) + "ms");
+        }
+        return success;
+    }
+
+    /**
+     * Reads the snapshot back. Returns null if there is no snapshot, or if it was written for
+     * another format version, locale or grid size.
+     */
+    Model read(int cellCountX, int cellCountY, Bitmap fallbackIcon) {
+        if (!mFile.exists()) {
+            return null;
+        }
+
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(mFile);
+            final FileChannel channel = in.getChannel();
+            final MappedByteBuffer buffer =
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                    || !Locale.getDefault().toString().equals(readString(buffer))
+                    || buffer.getInt() != Launcher.SCREEN_COUNT
+                    || buffer.getInt() != cellCountX || buffer.getInt() != cellCountY) {
+                if (LauncherModel.DEBUG_LOADERS) Log.d(TAG, "workspace snapshot is out of date");
+                return null;
+            }
+
+            final Model model = new Model();
+
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                final FolderInfo folder = new FolderInfo();
+                readItem(buffer, folder);
+                folder.title = readString(buffer);
+                model.folders.put(folder.id, folder);
+
+                final int contents = buffer.getInt();
+                for (int j = 0; j < contents; j++) {
+                    final ShortcutInfo info = readShortcut(buffer, fallbackIcon);
+                    folder.add(info);
+                    model.itemsIdMap.put(info.id, info);
+                }
+            }
+
+            count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                final ItemInfo item;
+                if (buffer.get() == TYPE_FOLDER) {
+                    item = model.folders.get(buffer.getLong());
+                    if (item == null) {
+                        return null;
+                    }
+                } else {
+                    item = readShortcut(buffer, fallbackIcon);
+                }
+                model.workspaceItems.add(item);
+                model.itemsIdMap.put(item.id, item);
+            }
+
+            count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                final int appWidgetId = buffer.getInt();
+                final ComponentName provider =
+                        new ComponentName(readString(buffer), readString(buffer));
+                final LauncherAppWidgetInfo widget =
+                        new LauncherAppWidgetInfo(appWidgetId, provider);
+                readItem(buffer, widget);
+                widget.minSpanX = buffer.getInt();
+                widget.minSpanY = buffer.getInt();
+                model.appWidgets.add(widget);
+                model.itemsIdMap.put(widget.id, widget);
+            }
+            return model;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read workspace snapshot", e);
+        } catch (BufferUnderflowException e) {
+            Log.w(TAG, "Truncated workspace snapshot", e);
+        } catch (URISyntaxException e) {
+            Log.w(TAG, "Corrupt workspace snapshot", e);
+        } catch (RuntimeException e) {
+            // Anything else a corrupt file can make the decoding throw, so that it is deleted
+            // instead of failing every cold start
+            Log.w(TAG, "Corrupt workspace snapshot", e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+        delete();
+        return null;
+    }
+
+    private static void writeItem(DataOutputStream out, ItemInfo item) throws IOException {
+        out.writeLong(item.id);
+        out.writeInt(item.itemType);
+        out.writeLong(item.container);
+        out.writeInt(item.screen);
+        out.writeInt(item.cellX);
+        out.writeInt(item.cellY);
+        out.writeInt(item.spanX);
+        out.writeInt(item.spanY);
+    }
+
+    private static void readItem(MappedByteBuffer buffer, ItemInfo item) {
+        item.id = buffer.getLong();
+        item.itemType = buffer.getInt();
+        item.container = buffer.getLong();
+        item.screen = buffer.getInt();
+        item.cellX = buffer.getInt();
+        item.cellY = buffer.getInt();
+        item.spanX = buffer.getInt();
+        item.spanY = buffer.getInt();
+    }
+
+    private void writeShortcut(DataOutputStream out, ShortcutInfo info) throws IOException {
+        writeItem(out, info);
+        writeString(out, info.title);
+        writeString(out, info.intent != null ? info.intent.toUri(0) : null);
+        int flags = 0;
+        if (info.customIcon) flags |= FLAG_CUSTOM_ICON;
+        if (info.usingFallbackIcon) flags |= FLAG_FALLBACK_ICON;
+        out.writeInt(flags);
+        if (info.iconResource != null) {
+            writeString(out, info.iconResource.packageName);
+            writeString(out, info.iconResource.resourceName);
+        } else {
+            writeString(out, null);
+            writeString(out, null);
+        }
+        // The fallback icon is the same for everybody, don't store a copy of it
+        writeIcon(out, info.usingFallbackIcon ? null : info.getIcon(mIconCache));
+    }
+
+    private ShortcutInfo readShortcut(MappedByteBuffer buffer, Bitmap fallbackIcon)
+            throws URISyntaxException {
+        final ShortcutInfo info = new ShortcutInfo();
+        readItem(buffer, info);
+        info.title = readString(buffer);
+        final String uri = readString(buffer);
+        info.intent = uri != null ? Intent.parseUri(uri, 0) : null;
+        final int flags = buffer.getInt();
+        info.customIcon = (flags & FLAG_CUSTOM_ICON) != 0;
+        info.usingFallbackIcon = (flags & FLAG_FALLBACK_ICON) != 0;
+        final String iconPackage = readString(buffer);
+        final String iconResource = readString(buffer);
+        if (iconPackage != null) {
+            info.iconResource = new Intent.ShortcutIconResource();
+            info.iconResource.packageName = iconPackage;
+            info.iconResource.resourceName = iconResource;
+        }
+
+        Bitmap icon = readIcon(buffer);
+        if (icon == null) {
+            // The model's own fallback icon, which is never changed, so it isn't copied
+            icon = fallbackIcon;
+            info.usingFallbackIcon = true;
+        }
+        info.setIcon(icon);
+        return info;
+    }
+
+    /**
+     * Icons are stored as raw premultiplied pixels rather than PNG: reading them back is a
+     * plain copy, and the result is bit-identical to the bitmap that was written, which
+     * {@link #sameItem} relies on.
+     */
+    private static void writeIcon(DataOutputStream out, Bitmap icon) throws IOException {
+        if (icon == null) {
+            out.writeInt(-1);
+            return;
+        }
+        if (icon.getConfig() != Bitmap.Config.ARGB_8888) {
+            icon = icon.copy(Bitmap.Config.ARGB_8888, false);
+        }
+        final ByteBuffer pixels = ByteBuffer.allocate(icon.getRowBytes() * icon.getHeight());
+        icon.copyPixelsToBuffer(pixels);
+        out.writeInt(icon.getWidth());
+        out.writeInt(icon.getHeight());
+        out.write(pixels.array());
+    }
+
+    private Bitmap readIcon(MappedByteBuffer buffer) {
+        final int width = buffer.getInt();
+        if (width < 0) {
+            return null;
+        }
+        final int height = buffer.getInt();
+        // Checked before anything is allocated, a corrupt size must not run out of memory
+        if (width == 0 || height == 0 || width > mMaxIconSize || height > mMaxIconSize
+                || width * height * 4 > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        final Bitmap icon = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        final int end = buffer.position() + icon.getRowBytes() * height;
+        if (end > buffer.limit()) {
+            throw new BufferUnderflowException();
+        }
+        icon.copyPixelsFromBuffer(buffer);
+        buffer.position(end);
+        return icon;
+    }
+
+    /**
+     * Returns whether two items describe the same thing, including their icons. Used to check
+     * a bound snapshot against what was actually loaded from the database.
+     */
+    boolean sameItem(ItemInfo a, ItemInfo b) {
+        if (a == null || b == null || a.getClass() != b.getClass()) {
+            return false;
+        }
+        if (a.id != b.id || a.itemType != b.itemType || a.container != b.container
+                || a.screen != b.screen || a.cellX != b.cellX || a.cellY != b.cellY
+                || a.spanX != b.spanX || a.spanY != b.spanY) {
+            return false;
+        }
+        if (a instanceof ShortcutInfo) {
+            final ShortcutInfo sa = (ShortcutInfo) a;
+            final ShortcutInfo sb = (ShortcutInfo) b;
+            if (!TextUtils.equals(sa.title, sb.title)
+                    || sa.customIcon != sb.customIcon
+                    || sa.usingFallbackIcon != sb.usingFallbackIcon) {
+                return false;
+            }
+            if (sa.intent == null || sb.intent == null) {
+                if (sa.intent != sb.intent) return false;
+            } else if (!sa.intent.toUri(0).equals(sb.intent.toUri(0))) {
+                return false;
+            }
+            return sa.usingFallbackIcon
+                    || sa.getIcon(mIconCache).sameAs(sb.getIcon(mIconCache));
+        } else if (a instanceof FolderInfo) {
+            final FolderInfo fa = (FolderInfo) a;
+            final FolderInfo fb = (FolderInfo) b;
+            return TextUtils.equals(fa.title, fb.title)
+                    && fa.contents.size() == fb.contents.size();
+        } else if (a instanceof LauncherAppWidgetInfo) {
+            final LauncherAppWidgetInfo wa = (LauncherAppWidgetInfo) a;
+            final LauncherAppWidgetInfo wb = (LauncherAppWidgetInfo) b;
+            return wa.appWidgetId == wb.appWidgetId && wa.providerName.equals(wb.providerName)
+                    && wa.minSpanX == wb.minSpanX && wa.minSpanY == wb.minSpanY;
+        }
+        return true;
+    }
+
+    private static void writeString(DataOutputStream out, CharSequence s) throws IOException {
+        writeBytes(out, s != null ? s.toString().getBytes("UTF-8") : null);
+    }
+
+    private static String readString(MappedByteBuffer buffer) throws IOException {
+        final byte[] data = readBytes(buffer);
+        return data != null ? new String(data, "UTF-8") : null;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] data) throws IOException {
+        if (data == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(data.length);
+            out.write(data);
+        }
+    }
+
+    private static byte[] readBytes(MappedByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] data = new byte[length];
+        buffer.get(data);
+        return data;
+    }
+}
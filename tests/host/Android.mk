@@ -0,0 +1,31 @@
+# Copyright (C) 2012 The Android Open Source Project
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+LOCAL_PATH := $(call my-dir)
+include $(CLEAR_VARS)
+
+# Tests and benchmarks for the launcher classes that don't need the framework, they run on the
+# host JVM:
+#   java -cp LauncherHostTests.jar:junit.jar junit.textui.TestRunner <test class>
+LOCAL_MODULE_TAGS := tests
+
+LOCAL_MODULE := LauncherHostTests
+
+LOCAL_SRC_FILES := $(call all-java-files-under, src) \
+    ../../src/com/launcherjellybean/android/LongHashMap.java \
+    ../../src/com/launcherjellybean/android/LzCodec.java
+
+LOCAL_JAVA_LIBRARIES := junit
+
+include $(BUILD_HOST_JAVA_LIBRARY)
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.launcherjellybean.android;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * LongHashMap的测试,以及与HashMap的性能对比.
+ * Tests for {@link LongHashMap}, checked against a HashMap, and a benchmark of the two with
+ * the number of items a large workspace has.
+ */
+public class LongHashMapTest extends TestCase {
+    private static final int BENCHMARK_ITEMS = 10000;
+    private static final int BENCHMARK_ROUNDS = 50;
+
+    public void testPutGetRemove() {
+        final LongHashMap<String> map = new LongHashMap<String>();
+        assertTrue(map.isEmpty());
+        assertNull(map.put(1, "a"));
+        assertNull(map.put(-5, "b"));
+        assertNull(map.put(Long.MAX_VALUE, "c"));
+        assertEquals("a", map.put(1, "A"));
+        assertEquals(3, map.size());
+
+        assertEquals("A", map.get(1));
+        assertEquals("b", map.get(-5));
+        assertEquals("c", map.get(Long.MAX_VALUE));
+        assertNull(map.get(2));
+        assertTrue(map.containsKey(-5));
+        assertFalse(map.containsKey(0));
+
+        assertEquals("b", map.remove(-5));
+        assertNull(map.remove(-5));
+        assertEquals(2, map.size());
+        assertFalse(map.containsKey(-5));
+
+        // Putting null removes the key
+        assertEquals("A", map.put(1, null));
+        assertEquals(1, map.size());
+        assertFalse(map.containsKey(1));
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(Long.MAX_VALUE));
+    }
+
+    /**
+     * Removes keys from the middle of runs of colliding keys, including a run that wraps
+     * around the end of the table, and checks the keys after the hole can still be found.
+     */
+    public void testRemoveShiftsBackCollidingKeys() {
+        // A new map has 16 slots
+        for (int home : new int[] { 3, 15 }) {
+            final long[] keys = keysWithSlot(home, 16, 5);
+            for (int removed = 0; removed < keys.length; removed++) {
+                final LongHashMap<Long> map = new LongHashMap<Long>();
+                for (long key : keys) {
+                    map.put(key, key);
+                }
+                // And a key that lives in the slot right after the run
+                final long neighbour = keysWithSlot((home + 1) & 15, 16, 1)[0];
+                map.put(neighbour, neighbour);
+
+                assertEquals(Long.valueOf(keys[removed]), map.remove(keys[removed]));
+                for (int i = 0; i < keys.length; i++) {
+                    if (i == removed) {
+                        assertFalse(map.containsKey(keys[i]));
+                    } else {
+                        assertEquals("home " + home + " removed " + removed,
+                                Long.valueOf(keys[i]), map.get(keys[i]));
+                    }
+                }
+                assertEquals(Long.valueOf(neighbour), map.get(neighbour));
+                assertEquals(keys.length, map.size());
+            }
+        }
+    }
+
+    public void testRehash() {
+        final LongHashMap<Long> map = new LongHashMap<Long>();
+        for (long id = 0; id < BENCHMARK_ITEMS; id++) {
+            map.put(id, id);
+            // Check the keys put before the last rehash are all still there
+            if (Long.bitCount(id) == 1) {
+                for (long j = 0; j <= id; j++) {
+                    assertEquals(Long.valueOf(j), map.get(j));
+                }
+            }
+        }
+        assertEquals(BENCHMARK_ITEMS, map.size());
+
+        final long[] keys = map.keys();
+        Arrays.sort(keys);
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(i, keys[i]);
+        }
+
+        final LongHashMap<Long> copy = new LongHashMap<Long>(map);
+        assertTrue(copy.sameEntries(map));
+        copy.put(0, Long.valueOf(-1));
+        assertFalse(copy.sameEntries(map));
+    }
+
+    /** Random operations on a small key range, so that there are lots of collisions. */
+    public void testMatchesHashMap() {
+        final Random random = new Random(4);
+        final LongHashMap<Integer> map = new LongHashMap<Integer>();
+        final HashMap<Long, Integer> expected = new HashMap<Long, Integer>();
+        for (int i = 0; i < 200000; i++) {
+            final long key = random.nextInt(300) - 100;
+            switch (random.nextInt(3)) {
+            case 0:
+                assertEquals(expected.put(key, i), map.put(key, i));
+                break;
+            case 1:
+                assertEquals(expected.remove(key), map.remove(key));
+                break;
+            default:
+                assertEquals(expected.get(key), map.get(key));
+                break;
+            }
+            assertEquals(expected.size(), map.size());
+        }
+
+        final ArrayList<Integer> values = new ArrayList<Integer>(map.values());
+        final ArrayList<Integer> expectedValues = new ArrayList<Integer>(expected.values());
+        assertEquals(expected.size(), map.values().size());
+        assertTrue(values.containsAll(expectedValues) && expectedValues.containsAll(values));
+        for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+    }
+
+    /**
+     * Puts, gets and removes as many items as a large workspace has, by id, in both maps and
+     * prints the times. The results are only reported, not checked.
+     */
+    public void testBenchmarkAgainstHashMap() {
+        final long[] ids = new long[BENCHMARK_ITEMS];
+        final Random random = new Random(0);
+        long id = 0;
+        for (int i = 0; i < ids.length; i++) {
+            // Mostly sequential, with the gaps deleted rows leave
+            id += 1 + random.nextInt(4);
+            ids[i] = id;
+        }
+        final Object value = new Object();
+
+        long longMapTime = 0;
+        long hashMapTime = 0;
+        int found = 0;
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            long t = System.nanoTime();
+            final LongHashMap<Object> longMap = new LongHashMap<Object>();
+            for (long key : ids) {
+                longMap.put(key, value);
+            }
+            for (long key : ids) {
+                if (longMap.get(key) != null) found++;
+            }
+            for (long key : ids) {
+                longMap.remove(key);
+            }
+            longMapTime += System.nanoTime() - t;
+
+            t = System.nanoTime();
+            final HashMap<Long, Object> hashMap = new HashMap<Long, Object>();
+            for (long key : ids) {
+                hashMap.put(key, value);
+            }
+            for (long key : ids) {
+                if (hashMap.get(key) != null) found++;
+            }
+            for (long key : ids) {
+                hashMap.remove(key);
+            }
+            hashMapTime += System.nanoTime() - t;
+        }
+        assertEquals(2 * BENCHMARK_ROUNDS * BENCHMARK_ITEMS, found);
+
+        System.out.println("put/get/remove of " + BENCHMARK_ITEMS + " ids, average of "
+                + BENCHMARK_ROUNDS + " rounds: LongHashMap "
+                + longMapTime / BENCHMARK_ROUNDS / 1000 + "us, HashMap "
+                + hashMapTime / BENCHMARK_ROUNDS / 1000 + "us");
+    }
+
+    /** Returns count keys whose home slot in a table of the given capacity is slot. */
+    private static long[] keysWithSlot(int slot, int capacity, int count) {
+        final int shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        final long[] keys = new long[count];
+        int n = 0;
+        for (long key = 0; n < count; key++) {
+            if ((int) ((key * 0x9E3779B97F4A7C15L) >>> shift) == slot) {
+                keys[n++] = key;
+            }
+        }
+        return keys;
+    }
+}
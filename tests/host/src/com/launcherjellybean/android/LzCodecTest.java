@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.launcherjellybean.android;
+
+import junit.framework.TestCase;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * LzCodec的测试,以及与PNG的大小和速度对比.
+ * Round trip tests for {@link LzCodec}, and a comparison of the size and speed of icons
+ * stored with it against PNG, written and read by ImageIO here.
+ */
+public class LzCodecTest extends TestCase {
+    private static final int ICON_SIZE = 96;
+    private static final int BENCHMARK_ROUNDS = 200;
+
+    public void testRoundTrip() {
+        final Random random = new Random(22);
+        for (int i = 0; i < 2000; i++) {
+            final int length = random.nextInt(i < 1000 ? 64 : 70000);
+            final byte[] data = new byte[length];
+            switch (i % 3) {
+            case 0:
+                random.nextBytes(data);
+                break;
+            case 1:
+                // Mostly zeroes, like transparent pixels
+                for (int j = 0; j < length; j++) {
+                    data[j] = random.nextInt(8) == 0 ? (byte) random.nextInt() : 0;
+                }
+                break;
+            default:
+                // A short pattern over and over, with long matches
+                final int period = 1 + random.nextInt(12);
+                for (int j = 0; j < length; j++) {
+                    data[j] = (byte) (j % period);
+                }
+                break;
+            }
+            assertRoundTrip(data);
+        }
+    }
+
+    public void testRoundTripIcons() {
+        for (int kind = 0; kind < 3; kind++) {
+            assertRoundTrip(toBytes(makeIcon(kind)));
+        }
+    }
+
+    public void testRejectsBadInput() {
+        final byte[] data = toBytes(makeIcon(0));
+        final byte[] compressed = compress(data);
+
+        // Truncated
+        final byte[] truncated = Arrays.copyOf(compressed, compressed.length - 1);
+        assertFalse(LzCodec.decompress(truncated, 0, new byte[data.length]));
+        // Trailing garbage
+        final byte[] longer = Arrays.copyOf(compressed, compressed.length + 1);
+        assertFalse(LzCodec.decompress(longer, 0, new byte[data.length]));
+        // Expecting more or less output than there is
+        assertFalse(LzCodec.decompress(compressed, 0, new byte[data.length + 1]));
+        assertFalse(LzCodec.decompress(compressed, 0, new byte[data.length - 1]));
+        // Random bytes must fail cleanly rather than throw
+        final Random random = new Random(0);
+        for (int i = 0; i < 1000; i++) {
+            final byte[] garbage = new byte[1 + random.nextInt(200)];
+            random.nextBytes(garbage);
+            LzCodec.decompress(garbage, 0, new byte[random.nextInt(1000)]);
+        }
+    }
+
+    /**
+     * Writes and reads typical icons with LzCodec and as PNG and prints the sizes and times.
+     * The results are only reported, not checked.
+     */
+    public void testBenchmarkAgainstPng() throws IOException {
+        final String[] kinds = { "round", "photo", "glyph" };
+        // The first pass only warms up the JIT
+        for (int pass = 0; pass < 2; pass++) {
+            for (int kind = 0; kind < kinds.length; kind++) {
+                benchmark(kinds[kind], kind, pass > 0);
+            }
+        }
+    }
+
+    private static void benchmark(String name, int kind, boolean print) throws IOException {
+        final int[] pixels = makeIcon(kind);
+        final byte[] data = toBytes(pixels);
+        final BufferedImage image =
+                new BufferedImage(ICON_SIZE, ICON_SIZE, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, ICON_SIZE, ICON_SIZE, pixels, 0, ICON_SIZE);
+
+        byte[] compressed = null;
+        long t = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ROUNDS; i++) {
+            compressed = compress(data);
+        }
+        final long lzEncode = System.nanoTime() - t;
+        final byte[] decompressed = new byte[data.length];
+        t = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ROUNDS; i++) {
+            assertTrue(LzCodec.decompress(compressed, 0, decompressed));
+        }
+        final long lzDecode = System.nanoTime() - t;
+
+        byte[] png = null;
+        t = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ROUNDS; i++) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(image, "png", out);
+            png = out.toByteArray();
+        }
+        final long pngEncode = System.nanoTime() - t;
+        t = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ROUNDS; i++) {
+            assertNotNull(ImageIO.read(new ByteArrayInputStream(png)));
+        }
+        final long pngDecode = System.nanoTime() - t;
+
+        if (!print) {
+            return;
+        }
+        System.out.println(name + " " + ICON_SIZE + "x" + ICON_SIZE + " icon: "
+                + "lz " + compressed.length + " bytes, encode "
+                + lzEncode / BENCHMARK_ROUNDS / 1000 + "us, decode "
+                + lzDecode / BENCHMARK_ROUNDS / 1000 + "us; "
+                + "png " + png.length + " bytes, encode "
+                + pngEncode / BENCHMARK_ROUNDS / 1000 + "us, decode "
+                + pngDecode / BENCHMARK_ROUNDS / 1000 + "us");
+    }
+
+    private static void assertRoundTrip(byte[] data) {
+        final byte[] compressed = compress(data);
+        final byte[] decompressed = new byte[data.length];
+        assertTrue("length " + data.length, LzCodec.decompress(compressed, 0, decompressed));
+        assertTrue("length " + data.length, Arrays.equals(data, decompressed));
+
+        // With something in front of it, like the IconCodec header
+        final byte[] dst = new byte[3 + LzCodec.maxCompressedLength(data.length)];
+        final int end = LzCodec.compress(data, dst, 3);
+        assertEquals(compressed.length + 3, end);
+        assertTrue(LzCodec.decompress(Arrays.copyOf(dst, end), 3, decompressed));
+        assertTrue(Arrays.equals(data, decompressed));
+    }
+
+    private static byte[] compress(byte[] data) {
+        final byte[] dst = new byte[LzCodec.maxCompressedLength(data.length)];
+        return Arrays.copyOf(dst, LzCodec.compress(data, dst, 0));
+    }
+
+    /**
+     * Returns the ARGB pixels of an icon: a shaded disc with anti-aliased edges and
+     * transparent corners, a noisy photo-like square, or a flat glyph on nothing.
+     */
+    private static int[] makeIcon(int kind) {
+        final int[] pixels = new int[ICON_SIZE * ICON_SIZE];
+        final Random random = new Random(kind);
+        final float center = ICON_SIZE / 2f;
+        for (int y = 0; y < ICON_SIZE; y++) {
+            for (int x = 0; x < ICON_SIZE; x++) {
+                final int argb;
+                switch (kind) {
+                case 0: {
+                    final float d = (float) Math.hypot(x + 0.5f - center, y + 0.5f - center);
+                    final float coverage = Math.max(0, Math.min(1, center - 4 - d));
+                    final int shade = 120 + (int) (100 * y / (float) ICON_SIZE);
+                    argb = (int) (coverage * 255) << 24 | shade << 16 | 80 << 8 | (255 - shade);
+                    break;
+                }
+                case 1:
+                    argb = 0xff000000 | (x * 2 + random.nextInt(16)) << 16
+                            | (y * 2 + random.nextInt(16)) << 8 | random.nextInt(256);
+                    break;
+                default:
+                    final boolean ink = (x / 12 + y / 12) % 3 == 0 && x > 8 && x < ICON_SIZE - 8;
+                    argb = ink ? 0xff33b5e5 : 0;
+                    break;
+                }
+                pixels[y * ICON_SIZE + x] = argb;
+            }
+        }
+        return pixels;
+    }
+
+    /** Returns the pixels as Bitmap.copyPixelsToBuffer() does: premultiplied, R G B A. */
+    private static byte[] toBytes(int[] pixels) {
+        final byte[] data = new byte[pixels.length * 4];
+        for (int i = 0; i < pixels.length; i++) {
+            final int a = pixels[i] >>> 24;
+            data[i * 4] = (byte) (((pixels[i] >> 16) & 0xff) * a / 255);
+            data[i * 4 + 1] = (byte) (((pixels[i] >> 8) & 0xff) * a / 255);
+            data[i * 4 + 2] = (byte) ((pixels[i] & 0xff) * a / 255);
+            data[i * 4 + 3] = (byte) a;
+        }
+        return data;
+    }
+}
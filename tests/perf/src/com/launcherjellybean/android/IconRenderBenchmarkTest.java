@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.launcherjellybean.android;
+
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 多线程绘制图标的吞吐量测试.
+ * Draws the icons of the installed apps with Utilities on 1 to N threads at once, checks every
+ * thread gets the same pixels as a single thread does, and logs how many icons per second
+ * each thread count manages.
+ */
+public class IconRenderBenchmarkTest extends AndroidTestCase {
+    private static final String TAG = "LauncherPerf";
+    private static final int MAX_ICONS = 40;
+    private static final int RENDERS = 1000;
+
+    private List<ResolveInfo> mApps;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        final Intent intent = new Intent(Intent.ACTION_MAIN);
+        intent.addCategory(Intent.CATEGORY_LAUNCHER);
+        mApps = getContext().getPackageManager().queryIntentActivities(intent, 0);
+        if (mApps.size() > MAX_ICONS) {
+            mApps = mApps.subList(0, MAX_ICONS);
+        }
+        assertFalse("no apps to take icons from", mApps.isEmpty());
+    }
+
+    public void testRenderThroughput() throws Exception {
+        final List<Drawable> referenceIcons = loadIcons();
+        final Bitmap[] expected = new Bitmap[referenceIcons.size()];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = render(referenceIcons.get(i));
+        }
+
+        final int cores = Runtime.getRuntime().availableProcessors();
+        long singleThreadRate = 0;
+        for (int threads = 1; threads <= Math.max(4, cores); threads *= 2) {
+            // Drawables aren't thread safe, every thread draws its own
+            final ArrayList<ArrayList<Drawable>> icons = new ArrayList<ArrayList<Drawable>>();
+            for (int i = 0; i < threads; i++) {
+                icons.add(loadIcons());
+            }
+
+            final ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                final ArrayList<Future<Integer>> results = new ArrayList<Future<Integer>>();
+                final long t = System.nanoTime();
+                for (int i = 0; i < threads; i++) {
+                    final ArrayList<Drawable> threadIcons = icons.get(i);
+                    final int count = RENDERS / threads;
+                    results.add(executor.submit(new Callable<Integer>() {
+                        public Integer call() {
+                            return render(threadIcons, count, expected);
+                        }
+                    }));
+                }
+                for (Future<Integer> result : results) {
+                    assertEquals("icons that differ on " + threads + " threads",
+                            0, result.get().intValue());
+                }
+                final long time = System.nanoTime() - t;
+
+                final long rate = (RENDERS / threads) * threads * 1000000000L / time;
+                if (threads == 1) {
+                    singleThreadRate = rate;
+                }
+                Log.i(TAG, "icons on " + threads + " threads (" + cores + " cores): " + rate
+                        + " icons/s, " + (rate * 100 / singleThreadRate) + "% of one thread");
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    private ArrayList<Drawable> loadIcons() {
+        final PackageManager pm = getContext().getPackageManager();
+        final ArrayList<Drawable> icons = new ArrayList<Drawable>(mApps.size());
+        for (ResolveInfo app : mApps) {
+            icons.add(app.loadIcon(pm));
+        }
+        return icons;
+    }
+
+    /**
+     * Draws count icons, going round the given drawables. The first round is compared with
+     * the expected bitmaps, returns how many of them differ.
+     */
+    private int render(List<Drawable> icons, int count, Bitmap[] expected) {
+        int differences = 0;
+        for (int i = 0; i < count; i++) {
+            final Bitmap bitmap = render(icons.get(i % icons.size()));
+            if (i < expected.length && !expected[i].sameAs(bitmap)) {
+                differences++;
+            }
+            bitmap.recycle();
+        }
+        return differences;
+    }
+
+    /**
+     * Draws an icon the way IconCache does for an app, and then its disabled version the way
+     * all apps does.
+     */
+    private Bitmap render(Drawable drawable) {
+        final Bitmap icon = Utilities.createIconBitmap(drawable, getContext());
+        final Bitmap disabled = Utilities.drawDisabledBitmap(icon, getContext());
+        icon.recycle();
+        return disabled;
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.launcherjellybean.android;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.launcherjellybean.android.LauncherSettings.Favorites;
+
+import java.lang.reflect.Field;
+
+/**
+ * LauncherProvider中按id移动和删除的编译语句路径的测试.
+ * Tests the compiled statements LauncherProvider uses to move, resize and delete a single
+ * favorite and to write icons, and times moves through them against the generic update. The rows are written
+ * without notifications, into a container no real item uses, and removed again afterwards.
+ */
+public class ProviderWriteTest extends AndroidTestCase {
+    private static final String TAG = "LauncherPerf";
+    private static final long TEST_CONTAINER = -4242;
+    private static final int BENCHMARK_MOVES = 500;
+
+    private ContentResolver mResolver;
+    private LauncherProvider mProvider;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResolver = getContext().getContentResolver();
+        mProvider = ((LauncherApplication) getContext().getApplicationContext())
+                .getLauncherProvider();
+        assertNotNull(mProvider);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mResolver.delete(Favorites.CONTENT_URI_NO_NOTIFICATION,
+                Favorites.CONTAINER + "=" + TEST_CONTAINER, null);
+        super.tearDown();
+    }
+
+    public void testCoordinateUpdates() {
+        final long id = insertItem(null);
+
+        // Each set of columns gets its own statement, used again for the same set
+        ContentValues values = new ContentValues();
+        values.put(Favorites.CELLX, 1);
+        values.put(Favorites.CELLY, 2);
+        assertEquals(1, update(id, values));
+        assertRow(id, TEST_CONTAINER, 0, 1, 2, 1, 1);
+        final int statements = compiledUpdates();
+
+        values = new ContentValues();
+        values.put(Favorites.SCREEN, 3);
+        assertEquals(1, update(id, values));
+        assertRow(id, TEST_CONTAINER, 3, 1, 2, 1, 1);
+        // Unless the launcher has moved something the same way before
+        final int afterScreen = compiledUpdates();
+        assertTrue(afterScreen == statements || afterScreen == statements + 1);
+
+        values = new ContentValues();
+        values.put(Favorites.CELLY, 4);
+        values.put(Favorites.CELLX, 3);
+        assertEquals(1, update(id, values));
+        assertRow(id, TEST_CONTAINER, 3, 3, 4, 1, 1);
+        assertEquals(afterScreen, compiledUpdates());
+
+        values = new ContentValues();
+        values.put(Favorites.SPANX, 2);
+        values.put(Favorites.SPANY, 3);
+        values.put(Favorites.CONTAINER, TEST_CONTAINER);
+        assertEquals(1, update(id, values));
+        assertRow(id, TEST_CONTAINER, 3, 3, 4, 2, 3);
+
+        // No such row
+        values = new ContentValues();
+        values.put(Favorites.CELLX, 0);
+        assertEquals(0, update(id + 1000000, values));
+    }
+
+    public void testNullCoordinates() {
+        final long id = insertItem(null);
+        final ContentValues values = new ContentValues();
+        values.putNull(Favorites.SCREEN);
+        values.put(Favorites.CELLX, 2);
+        assertEquals(1, update(id, values));
+
+        final Cursor c = query(id);
+        try {
+            assertTrue(c.moveToFirst());
+            assertTrue(c.isNull(c.getColumnIndexOrThrow(Favorites.SCREEN)));
+            assertEquals(2, c.getInt(c.getColumnIndexOrThrow(Favorites.CELLX)));
+        } finally {
+            c.close();
+        }
+    }
+
+    /** Values with other columns than the coordinates go through the generic update. */
+    public void testOtherColumnsFallBack() {
+        final long id = insertItem(null);
+        final int statements = compiledUpdates();
+
+        ContentValues values = new ContentValues();
+        values.put(Favorites.CELLX, 3);
+        values.put(Favorites.TITLE, "moved");
+        assertEquals(1, update(id, values));
+        assertRow(id, TEST_CONTAINER, 0, 3, 0, 1, 1);
+        assertEquals("moved", queryTitle(id));
+
+        values = new ContentValues();
+        values.put(Favorites.TITLE, "renamed");
+        assertEquals(1, update(id, values));
+        assertEquals("renamed", queryTitle(id));
+
+        assertEquals(statements, compiledUpdates());
+    }
+
+    public void testDeleteById() {
+        final long id = insertItem(new byte[] { 1, 2, 3 });
+        final long other = insertItem(null);
+        assertHasIcon(id, true);
+
+        assertEquals(1, mResolver.delete(Favorites.getContentUri(id, false), null, null));
+        assertFalse(exists(id));
+        assertTrue(exists(other));
+        // The trigger takes the icon along
+        assertHasIcon(id, false);
+
+        assertEquals(0, mResolver.delete(Favorites.getContentUri(id, false), null, null));
+    }
+
+    public void testIconUpdates() {
+        final long id = insertItem(null);
+        final long other = insertItem(new byte[] { 4 });
+
+        ContentValues values = new ContentValues();
+        values.put(Favorites.ICON, new byte[] { 1, 2 });
+        assertEquals(1, update(id, values));
+        assertHasIcon(id, true);
+
+        // A null icon removes the icon row, the count is that of the favorites
+        values = new ContentValues();
+        values.putNull(Favorites.ICON);
+        assertEquals(1, update(id, values));
+        assertHasIcon(id, false);
+        assertHasIcon(other, true);
+
+        values = new ContentValues();
+        values.putNull(Favorites.ICON);
+        values.put(Favorites.TITLE, "no icon");
+        assertEquals(2, mResolver.update(Favorites.CONTENT_URI_NO_NOTIFICATION, values,
+                Favorites.CONTAINER + "=?", new String[] { String.valueOf(TEST_CONTAINER) }));
+        assertHasIcon(other, false);
+        assertEquals("no icon", queryTitle(other));
+
+        values = new ContentValues();
+        values.put(Favorites.ICON, new byte[] { 3 });
+        assertEquals(0, update(id + 1000000, values));
+    }
+
+    /** Logs the time of moves through the compiled statement and the generic update. */
+    public void testBenchmarkMoves() {
+        final long id = insertItem(null);
+
+        long t = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_MOVES; i++) {
+            final ContentValues values = new ContentValues();
+            values.put(Favorites.CELLX, i % 4);
+            values.put(Favorites.CELLY, i % 3);
+            update(id, values);
+        }
+        final long compiled = System.nanoTime() - t;
+
+        t = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_MOVES; i++) {
+            final ContentValues values = new ContentValues();
+            values.put(Favorites.CELLX, i % 4);
+            values.put(Favorites.CELLY, i % 3);
+            // Any other column makes the provider use SQLiteDatabase.update()
+            values.put(Favorites.TITLE, "item");
+            update(id, values);
+        }
+        final long generic = System.nanoTime() - t;
+
+        Log.i(TAG, BENCHMARK_MOVES + " moves through the provider: compiled statement "
+                + compiled / BENCHMARK_MOVES / 1000 + "us each, generic update "
+                + generic / BENCHMARK_MOVES / 1000 + "us each");
+    }
+
+    private long insertItem(byte[] icon) {
+        final long id = mProvider.generateNewId();
+        final ContentValues values = new ContentValues();
+        values.put(Favorites._ID, id);
+        values.put(Favorites.TITLE, "test");
+        values.put(Favorites.ITEM_TYPE, Favorites.ITEM_TYPE_SHORTCUT);
+        values.put(Favorites.CONTAINER, TEST_CONTAINER);
+        values.put(Favorites.SCREEN, 0);
+        values.put(Favorites.CELLX, 0);
+        values.put(Favorites.CELLY, 0);
+        values.put(Favorites.SPANX, 1);
+        values.put(Favorites.SPANY, 1);
+        if (icon != null) {
+            values.put(Favorites.ICON, icon);
+        }
+        assertNotNull(mResolver.insert(Favorites.CONTENT_URI_NO_NOTIFICATION, values));
+        return id;
+    }
+
+    private int update(long id, ContentValues values) {
+        return mResolver.update(Favorites.getContentUri(id, false), values, null, null);
+    }
+
+    private Cursor query(long id) {
+        return mResolver.query(Favorites.getContentUri(id, false), null, null, null, null);
+    }
+
+    private boolean exists(long id) {
+        final Cursor c = query(id);
+        try {
+            return c.moveToFirst();
+        } finally {
+            c.close();
+        }
+    }
+
+    private String queryTitle(long id) {
+        final Cursor c = query(id);
+        try {
+            assertTrue(c.moveToFirst());
+            return c.getString(c.getColumnIndexOrThrow(Favorites.TITLE));
+        } finally {
+            c.close();
+        }
+    }
+
+    private void assertRow(long id, long container, int screen, int cellX, int cellY,
+            int spanX, int spanY) {
+        final Cursor c = query(id);
+        try {
+            assertTrue(c.moveToFirst());
+            assertEquals(container, c.getLong(c.getColumnIndexOrThrow(Favorites.CONTAINER)));
+            assertEquals(screen, c.getInt(c.getColumnIndexOrThrow(Favorites.SCREEN)));
+            assertEquals(cellX, c.getInt(c.getColumnIndexOrThrow(Favorites.CELLX)));
+            assertEquals(cellY, c.getInt(c.getColumnIndexOrThrow(Favorites.CELLY)));
+            assertEquals(spanX, c.getInt(c.getColumnIndexOrThrow(Favorites.SPANX)));
+            assertEquals(spanY, c.getInt(c.getColumnIndexOrThrow(Favorites.SPANY)));
+        } finally {
+            c.close();
+        }
+    }
+
+    private void assertHasIcon(long id, boolean expected) {
+        final Cursor c = mResolver.query(Favorites.getIconUri(id), null, null, null, null);
+        try {
+            assertEquals(expected, c.moveToFirst());
+        } finally {
+            c.close();
+        }
+    }
+
+    /** Returns how many coordinate update statements the provider has compiled so far. */
+    private int compiledUpdates() {
+        try {
+            final Field field = LauncherProvider.class.getDeclaredField("mUpdateCoordinates");
+            field.setAccessible(true);
+            return ((SparseArray<?>) field.get(mProvider)).size();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
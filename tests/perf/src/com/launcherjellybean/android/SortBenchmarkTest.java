@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.launcherjellybean.android;
+
+import android.appwidget.AppWidgetProviderInfo;
+import android.content.ComponentName;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * 按名字排序的性能测试.
+ * Times sorting 1,000 and 5,000 apps and widgets by name with the collation key comparators
+ * of LauncherModel, against running the collator on every comparison as they used to.
+ */
+public class SortBenchmarkTest extends AndroidTestCase {
+    private static final String TAG = "LauncherPerf";
+    private static final int ROUNDS = 5;
+
+    private static final String LETTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGéèüñçøå ";
+
+    private final Collator mCollator = Collator.getInstance();
+
+    public void testSortApps() {
+        for (int count : new int[] { 1000, 5000 }) {
+            final String[] labels = makeLabels(count);
+            final Comparator<ApplicationInfo> collatorComparator =
+                    new Comparator<ApplicationInfo>() {
+                public int compare(ApplicationInfo a, ApplicationInfo b) {
+                    return mCollator.compare(a.title.toString(), b.title.toString());
+                }
+            };
+
+            long collatorTime = Long.MAX_VALUE;
+            long keyTime = Long.MAX_VALUE;
+            ArrayList<ApplicationInfo> sorted = null;
+            for (int round = 0; round < ROUNDS; round++) {
+                ArrayList<ApplicationInfo> apps = makeApps(labels);
+                long t = System.nanoTime();
+                Collections.sort(apps, collatorComparator);
+                collatorTime = Math.min(collatorTime, System.nanoTime() - t);
+                sorted = apps;
+
+                // New infos, so the time includes computing their keys
+                apps = makeApps(labels);
+                t = System.nanoTime();
+                Collections.sort(apps, LauncherModel.APP_NAME_COMPARATOR);
+                keyTime = Math.min(keyTime, System.nanoTime() - t);
+                assertSameOrder(sorted, apps);
+            }
+            report("apps", count, collatorTime, keyTime);
+        }
+    }
+
+    public void testSortWidgets() {
+        for (int count : new int[] { 1000, 5000 }) {
+            final String[] labels = makeLabels(count);
+            final Comparator<AppWidgetProviderInfo> collatorComparator =
+                    new Comparator<AppWidgetProviderInfo>() {
+                public int compare(AppWidgetProviderInfo a, AppWidgetProviderInfo b) {
+                    return mCollator.compare(a.label, b.label);
+                }
+            };
+
+            long collatorTime = Long.MAX_VALUE;
+            long keyTime = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                final ArrayList<AppWidgetProviderInfo> widgets = makeWidgets(labels);
+                final ArrayList<AppWidgetProviderInfo> copy =
+                        new ArrayList<AppWidgetProviderInfo>(widgets);
+                long t = System.nanoTime();
+                Collections.sort(widgets, collatorComparator);
+                collatorTime = Math.min(collatorTime, System.nanoTime() - t);
+
+                // A new comparator, so the time includes computing the keys
+                t = System.nanoTime();
+                Collections.sort(copy, new LauncherModel.WidgetAndShortcutNameComparator(
+                        getContext().getPackageManager()));
+                keyTime = Math.min(keyTime, System.nanoTime() - t);
+                for (int i = 0; i < count; i++) {
+                    assertEquals(0, mCollator.compare(widgets.get(i).label, copy.get(i).label));
+                }
+            }
+            report("widgets", count, collatorTime, keyTime);
+        }
+    }
+
+    private static void report(String what, int count, long collatorTime, long keyTime) {
+        Log.i(TAG, "sorting " + count + " " + what + ", best of " + ROUNDS + ": collator "
+                + collatorTime / 1000 + "us, collation keys " + keyTime / 1000 + "us");
+    }
+
+    private void assertSameOrder(ArrayList<ApplicationInfo> expected,
+            ArrayList<ApplicationInfo> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(0, mCollator.compare(expected.get(i).title.toString(),
+                    actual.get(i).title.toString()));
+        }
+    }
+
+    private static String[] makeLabels(int count) {
+        final Random random = new Random(count);
+        final String[] labels = new String[count];
+        final StringBuilder label = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            label.setLength(0);
+            final int length = 3 + random.nextInt(14);
+            for (int j = 0; j < length; j++) {
+                label.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+            }
+            labels[i] = label.toString();
+        }
+        return labels;
+    }
+
+    private static ArrayList<ApplicationInfo> makeApps(String[] labels) {
+        final ArrayList<ApplicationInfo> apps = new ArrayList<ApplicationInfo>(labels.length);
+        for (int i = 0; i < labels.length; i++) {
+            final ApplicationInfo app = new ApplicationInfo();
+            app.title = labels[i];
+            app.componentName = new ComponentName("com.example", "App" + i);
+            apps.add(app);
+        }
+        return apps;
+    }
+
+    private static ArrayList<AppWidgetProviderInfo> makeWidgets(String[] labels) {
+        final ArrayList<AppWidgetProviderInfo> widgets =
+                new ArrayList<AppWidgetProviderInfo>(labels.length);
+        for (int i = 0; i < labels.length; i++) {
+            final AppWidgetProviderInfo widget = new AppWidgetProviderInfo();
+            widget.label = labels[i];
+            widget.provider = new ComponentName("com.example", "Widget" + i);
+            widgets.add(widget);
+        }
+        return widgets;
+    }
+}